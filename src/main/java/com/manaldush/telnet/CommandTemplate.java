@@ -5,7 +5,7 @@ import com.manaldush.telnet.security.Role;
 import com.manaldush.telnet.security.User;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -29,8 +29,10 @@ public final class CommandTemplate {
     private static final String INDENT = "    ";
     /**DASH char constant.*/
     private static final String DASH = " - ";
-    /**Accepted roles.*/
-    private final HashSet<String> roles = new HashSet<>();
+    /**Accepted roles: bit is set for id of every role. Bitset is replaced, not changed, when role is added.*/
+    private volatile BitSet roles = new BitSet();
+    /**Command is short and never blocks, it is executed by I/O thread.*/
+    private volatile boolean inline = false;
 
     /**
      * Construct command template object.
@@ -148,23 +150,38 @@ public final class CommandTemplate {
      * Add role for command template.
      * @param _r - role
      */
-    public void  addRole(final String _r) {
-        if (Role.containRole(_r)) {
-            this.roles.add(_r);
+    public synchronized void  addRole(final String _r) {
+        int id = Role.idOf(_r);
+        if (id >= 0) {
+            BitSet copy = (BitSet) roles.clone();
+            copy.set(id);
+            roles = copy;
         }
     }
 
+    /**
+     * Mark command as inline: short and never blocking. Inline command is executed directly by I/O thread of session,
+     * if session has no other commands to execute, without handing it over to execution engine.
+     * @param _inline - inline flag
+     */
+    public void setInline(final boolean _inline) {
+        inline = _inline;
+    }
+
+    /**
+     * Check that command is executed by I/O thread.
+     * @return TRUE/FALSE
+     */
+    public boolean isInline() {
+        return inline;
+    }
+
     /**
      * Check if user has access for execution this command.
      * @param _user - user object
      * @return TRUE/FALSE
      */
     public boolean hasAccess(final User _user) {
-        for (String role: roles) {
-            if (_user.hasRole(role)) {
-                return true;
-            }
-        }
-        return false;
+        return _user.hasAnyRole(roles);
     }
 }
@@ -2,7 +2,15 @@ package com.manaldush.telnet;
 
 import com.google.common.base.Preconditions;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base configuration of service.
@@ -17,6 +25,24 @@ public final class Configuration implements Cloneable {
     private static final int DEFAULT_SND_BUF = 1024;
     /**Default rcv buffer.*/
     private static final int DEFAULT_RCV_BUF = 1024;
+    /**Default number of worker event loops.*/
+    private static final int DEFAULT_WORKERS = 1;
+    /**Default size of read buffer.*/
+    private static final int DEFAULT_READ_BUFFER_SIZE = 4096;
+    /**Default number of threads of command pool.*/
+    private static final int DEFAULT_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+    /**Default max number of connections, accepted per wakeup of acceptor.*/
+    private static final int DEFAULT_ACCEPT_BATCH = 64;
+    /**Default max number of bytes, read from one session per pass of worker loop.*/
+    private static final int DEFAULT_READ_QUOTA_BYTES = 65536;
+    /**Default max number of lines, read from one session per pass of worker loop.*/
+    private static final int DEFAULT_READ_QUOTA_LINES = 256;
+    /**Default number of threads, checking credentials.*/
+    private static final int DEFAULT_AUTH_THREADS = 2;
+    /**Default max length of received line in bytes.*/
+    private static final int DEFAULT_MAX_LINE_LENGTH = 65536;
+    /**Default max number of queued commands of session.*/
+    private static final int DEFAULT_COMMAND_QUEUE_CAPACITY = 256;
     /**Max port value.*/
     private static final int MAX_PORT_VALUE = 65535;
     /**Maximum Number of simultaneous user sessions, default value = 10, 0 is not limited.*/
@@ -25,6 +51,10 @@ public final class Configuration implements Cloneable {
     private final InetAddress address;
     /**Port value.*/
     private final int port;
+    /**Additional endpoints, sharing commands of the main one.*/
+    private final List<SocketAddress> endpoints = new ArrayList<>();
+    /**Every worker loop listens on its own socket, bound with SO_REUSEPORT.*/
+    private Boolean reusePort = Boolean.FALSE;
     /**Command parser.*/
     private ICommandParserFactory parser = new DefaultCommandParserFactory();
     /**Greeting value.*/
@@ -39,6 +69,42 @@ public final class Configuration implements Cloneable {
     private Boolean tcpNoDelay = Boolean.FALSE;
     /**Prompt string.*/
     private String prompt = DEFAULT_PROMPT;
+    /**Number of worker event loops, serving accepted sessions.*/
+    private int workers = DEFAULT_WORKERS;
+    /**Size of buffers, used for reading data from sockets.*/
+    private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+    /**Use direct read buffers.*/
+    private Boolean directReadBuffer = Boolean.FALSE;
+    /**Max number of bytes, read from one session per pass of worker loop, 0 is not limited.*/
+    private int readQuotaBytes = DEFAULT_READ_QUOTA_BYTES;
+    /**Max number of lines, read from one session per pass of worker loop, 0 is not limited.*/
+    private int readQuotaLines = DEFAULT_READ_QUOTA_LINES;
+    /**Max length of received line in bytes, 0 is not limited.*/
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    /**Max number of queued commands of session, 0 is not limited.*/
+    private int commandQueueCapacity = DEFAULT_COMMAND_QUEUE_CAPACITY;
+    /**Policy of session, whose command queue is full.*/
+    private QueueOverflowPolicy queueOverflowPolicy = QueueOverflowPolicy.BACKPRESSURE;
+    /**Number of threads, checking credentials.*/
+    private int authThreads = DEFAULT_AUTH_THREADS;
+    /**Mode of execution of command processors.*/
+    private ExecutionMode executionMode = ExecutionMode.THREAD_PER_SESSION;
+    /**Number of threads of command pool, used in POOLED execution mode.*/
+    private int poolSize = DEFAULT_POOL_SIZE;
+    /**Listen backlog of server socket, 0 is system default.*/
+    private int backlog = 0;
+    /**Max number of connections, accepted per wakeup of acceptor.*/
+    private int acceptBatch = DEFAULT_ACCEPT_BATCH;
+    /**Accepted connections per second, 0 is not limited.*/
+    private int acceptRate = 0;
+    /**Max number of connections, accepted at once above accept rate.*/
+    private int acceptBurst = 0;
+    /**Timeout of session without input from client in milliseconds, 0 is not limited.*/
+    private long idleTimeout = 0;
+    /**Timeout of entering credentials in milliseconds, 0 is not limited.*/
+    private long loginTimeout = 0;
+    /**Max duration of session in milliseconds, 0 is not limited.*/
+    private long sessionTimeout = 0;
 
     /**
      * Constructor of configuration object.
@@ -64,6 +130,46 @@ public final class Configuration implements Cloneable {
         return new Configuration(InetAddress.getByName(_addr), _port);
     }
 
+    /**
+     * Add endpoint to listen on besides the main address and port. All endpoints share one command registry.
+     * @param _addr - address
+     * @param _port - port
+     * @throws UnknownHostException - unknown address
+     * @return configuration object
+     */
+    public Configuration addEndpoint(final String _addr, final int _port) throws UnknownHostException {
+        Preconditions.checkNotNull(_addr);
+        Preconditions.checkArgument(0 < _port);
+        Preconditions.checkArgument(_port <= MAX_PORT_VALUE);
+        endpoints.add(new InetSocketAddress(InetAddress.getByName(_addr), _port));
+        return this;
+    }
+
+    /**
+     * Add Unix domain socket endpoint to listen on, used by local clients. Socket file must not exist, it is created
+     * on start and deleted on stop of controller.
+     * @param _path - path of socket file
+     * @return configuration object
+     */
+    public Configuration addUnixEndpoint(final Path _path) {
+        Preconditions.checkNotNull(_path);
+        endpoints.add(UnixDomainSocketAddress.of(_path));
+        return this;
+    }
+
+    /**
+     * Set SO_REUSEPORT listening mode. Every worker loop listens on its own socket of every endpoint and kernel
+     * balances incoming connections between them, there is no single acceptor. Supported by Linux and BSD. Unix domain
+     * socket endpoints are served by acceptor anyway.
+     * @param _reusePort - mode flag
+     * @return configuration object
+     */
+    public Configuration setReusePort(final Boolean _reusePort) {
+        Preconditions.checkNotNull(_reusePort);
+        reusePort = _reusePort;
+        return this;
+    }
+
     /**
      * Set SND_BUF size socket parameter.
      * @param _soSndBuf - SND_BUF size
@@ -122,6 +228,202 @@ public final class Configuration implements Cloneable {
         return this;
     }
 
+    /**
+     * Set number of worker event loops. Every worker loop has its own selector and serves its own part of sessions.
+     * @param _workers - number of worker loops
+     * @throws IllegalArgumentException - if _workers <= 0
+     * @return configuration object
+     */
+    public Configuration setWorkers(final int _workers) {
+        Preconditions.checkArgument(_workers > 0);
+        workers = _workers;
+        return this;
+    }
+
+    /**
+     * Set size of read buffer. Every worker loop keeps pool of reusable buffers of this size and reads data from
+     * sockets by chunks of this size.
+     * @param _readBufferSize - read buffer size
+     * @throws IllegalArgumentException - if _readBufferSize <= 0
+     * @return configuration object
+     */
+    public Configuration setReadBufferSize(final int _readBufferSize) {
+        Preconditions.checkArgument(_readBufferSize > 0);
+        readBufferSize = _readBufferSize;
+        return this;
+    }
+
+    /**
+     * Set type of read buffers: direct or heap.
+     * @param _directReadBuffer - use direct buffers flag
+     * @return configuration object
+     */
+    public Configuration setDirectReadBuffer(final Boolean _directReadBuffer) {
+        Preconditions.checkNotNull(_directReadBuffer);
+        directReadBuffer = _directReadBuffer;
+        return this;
+    }
+
+    /**
+     * Set read quota of session. Worker loop stops reading session, which exceeded quota, and reads the rest of its
+     * data on the next pass after other ready sessions, so one flooding client doesn't starve others. Quota is checked
+     * after every chunk of read buffer size.
+     * @param _bytes - max number of bytes per pass, 0 is not limited
+     * @param _lines - max number of lines per pass, 0 is not limited
+     * @throws IllegalArgumentException - if _bytes < 0 or _lines < 0
+     * @return configuration object
+     */
+    public Configuration setReadQuota(final int _bytes, final int _lines) {
+        Preconditions.checkArgument(_bytes >= 0);
+        Preconditions.checkArgument(_lines >= 0);
+        readQuotaBytes = _bytes;
+        readQuotaLines = _lines;
+        return this;
+    }
+
+    /**
+     * Set command queue of session: max number of commands, waiting for execution, and policy of full queue.
+     * @param _capacity - max number of queued commands, 0 is not limited
+     * @param _policy - policy of full queue
+     * @throws IllegalArgumentException - if _capacity < 0
+     * @throws NullPointerException - _policy parameter is null
+     * @return configuration object
+     */
+    public Configuration setCommandQueue(final int _capacity, final QueueOverflowPolicy _policy) {
+        Preconditions.checkArgument(_capacity >= 0);
+        Preconditions.checkNotNull(_policy);
+        commandQueueCapacity = _capacity;
+        queueOverflowPolicy = _policy;
+        return this;
+    }
+
+    /**
+     * Set number of threads, checking credentials of sessions. Worker loops keep serving other sessions, while
+     * credentials are checked.
+     * @param _authThreads - number of threads
+     * @throws IllegalArgumentException - if _authThreads <= 0
+     * @return configuration object
+     */
+    public Configuration setAuthThreads(final int _authThreads) {
+        Preconditions.checkArgument(_authThreads > 0);
+        authThreads = _authThreads;
+        return this;
+    }
+
+    /**
+     * Set max length of line, received from client. Session, that sends longer line, is closed.
+     * @param _maxLineLength - max length in bytes, 0 is not limited
+     * @throws IllegalArgumentException - if _maxLineLength < 0
+     * @return configuration object
+     */
+    public Configuration setMaxLineLength(final int _maxLineLength) {
+        Preconditions.checkArgument(_maxLineLength >= 0);
+        maxLineLength = _maxLineLength;
+        return this;
+    }
+
+    /**
+     * Set mode of execution of command processors.
+     * @param _executionMode - execution mode
+     * @throws NullPointerException - _executionMode parameter is null
+     * @return configuration object
+     */
+    public Configuration setExecutionMode(final ExecutionMode _executionMode) {
+        Preconditions.checkNotNull(_executionMode);
+        executionMode = _executionMode;
+        return this;
+    }
+
+    /**
+     * Set number of threads of command pool, shared by all sessions in POOLED execution mode.
+     * @param _poolSize - number of threads
+     * @throws IllegalArgumentException - if _poolSize <= 0
+     * @return configuration object
+     */
+    public Configuration setPoolSize(final int _poolSize) {
+        Preconditions.checkArgument(_poolSize > 0);
+        poolSize = _poolSize;
+        return this;
+    }
+
+    /**
+     * Set listen backlog of server socket: max number of pending connections.
+     * @param _backlog - backlog, 0 is system default
+     * @throws IllegalArgumentException - if _backlog < 0
+     * @return configuration object
+     */
+    public Configuration setBacklog(final int _backlog) {
+        Preconditions.checkArgument(_backlog >= 0);
+        backlog = _backlog;
+        return this;
+    }
+
+    /**
+     * Set max number of connections, accepted per wakeup of acceptor.
+     * @param _acceptBatch - number of connections
+     * @throws IllegalArgumentException - if _acceptBatch <= 0
+     * @return configuration object
+     */
+    public Configuration setAcceptBatch(final int _acceptBatch) {
+        Preconditions.checkArgument(_acceptBatch > 0);
+        acceptBatch = _acceptBatch;
+        return this;
+    }
+
+    /**
+     * Set limit of accept rate. Connections above limit are closed right after accept, before session is created.
+     * @param _rate - accepted connections per second, 0 is not limited
+     * @param _burst - max number of connections, accepted at once above rate
+     * @throws IllegalArgumentException - if _rate < 0, or _burst <= 0 for limited rate
+     * @return configuration object
+     */
+    public Configuration setAcceptRate(final int _rate, final int _burst) {
+        Preconditions.checkArgument(_rate >= 0);
+        Preconditions.checkArgument(_rate == 0 || _burst > 0);
+        acceptRate = _rate;
+        acceptBurst = _burst;
+        return this;
+    }
+
+    /**
+     * Set idle timeout. Session, that doesn't receive any input from client during this time, is closed.
+     * @param _timeout - timeout value, 0 is not limited
+     * @param _unit - time unit of timeout value
+     * @throws IllegalArgumentException - if _timeout < 0
+     * @return configuration object
+     */
+    public Configuration setIdleTimeout(final long _timeout, final TimeUnit _unit) {
+        Preconditions.checkArgument(_timeout >= 0);
+        idleTimeout = _unit.toMillis(_timeout);
+        return this;
+    }
+
+    /**
+     * Set login timeout. Session, whose client doesn't enter credentials during this time, is closed.
+     * @param _timeout - timeout value, 0 is not limited
+     * @param _unit - time unit of timeout value
+     * @throws IllegalArgumentException - if _timeout < 0
+     * @return configuration object
+     */
+    public Configuration setLoginTimeout(final long _timeout, final TimeUnit _unit) {
+        Preconditions.checkArgument(_timeout >= 0);
+        loginTimeout = _unit.toMillis(_timeout);
+        return this;
+    }
+
+    /**
+     * Set session timeout. Session is closed after this time regardless of its activity.
+     * @param _timeout - timeout value, 0 is not limited
+     * @param _unit - time unit of timeout value
+     * @throws IllegalArgumentException - if _timeout < 0
+     * @return configuration object
+     */
+    public Configuration setSessionTimeout(final long _timeout, final TimeUnit _unit) {
+        Preconditions.checkArgument(_timeout >= 0);
+        sessionTimeout = _unit.toMillis(_timeout);
+        return this;
+    }
+
     /**
      * Set command parser.
      * @param _parser - parser object
@@ -137,8 +439,16 @@ public final class Configuration implements Cloneable {
     @Override
     public Object clone() {
         Configuration conf = new Configuration(this.address, this.port);
+        conf.endpoints.addAll(endpoints);
         return conf.setRCVBUF(soRcvBuf).setSoSndBuf(soSndBuf).setREUSEADDR(soReuseAddress).setTCPNODELAY(tcpNoDelay).
-                setMaxSessions(maxSessions).setParser(parser);
+                setMaxSessions(maxSessions).setParser(parser).setWorkers(workers).
+                setReadBufferSize(readBufferSize).setDirectReadBuffer(directReadBuffer).
+                setReadQuota(readQuotaBytes, readQuotaLines).setCommandQueue(commandQueueCapacity, queueOverflowPolicy).
+                setAuthThreads(authThreads).setMaxLineLength(maxLineLength).
+                setExecutionMode(executionMode).setPoolSize(poolSize).
+                setIdleTimeout(idleTimeout, TimeUnit.MILLISECONDS).setLoginTimeout(loginTimeout, TimeUnit.MILLISECONDS).
+                setSessionTimeout(sessionTimeout, TimeUnit.MILLISECONDS).setBacklog(backlog).
+                setAcceptBatch(acceptBatch).setAcceptRate(acceptRate, acceptBurst).setReusePort(reusePort);
     }
 
     /**
@@ -157,6 +467,25 @@ public final class Configuration implements Cloneable {
         return port;
     }
 
+    /**
+     * Get all endpoints to listen on: the main address and port first, then additional endpoints.
+     * @return endpoints
+     */
+    public List<SocketAddress> getEndpoints() {
+        List<SocketAddress> all = new ArrayList<>(endpoints.size() + 1);
+        all.add(new InetSocketAddress(address, port));
+        all.addAll(endpoints);
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Get SO_REUSEPORT listening mode.
+     * @return mode flag
+     */
+    public Boolean getReusePort() {
+        return reusePort;
+    }
+
     /**
      * Get socket SND_BUF size parameter.
      * @return SND_BUF size parameter
@@ -197,6 +526,150 @@ public final class Configuration implements Cloneable {
         return maxSessions;
     }
 
+    /**
+     * Get number of worker event loops.
+     * @return - value
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Get size of read buffer.
+     * @return - value
+     */
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Get type of read buffers.
+     * @return TRUE if direct buffers are used
+     */
+    public Boolean getDirectReadBuffer() {
+        return directReadBuffer;
+    }
+
+    /**
+     * Get max number of bytes, read from one session per pass of worker loop.
+     * @return - value, 0 is not limited
+     */
+    public int getReadQuotaBytes() {
+        return readQuotaBytes;
+    }
+
+    /**
+     * Get max number of lines, read from one session per pass of worker loop.
+     * @return - value, 0 is not limited
+     */
+    public int getReadQuotaLines() {
+        return readQuotaLines;
+    }
+
+    /**
+     * Get max number of queued commands of session.
+     * @return - value, 0 is not limited
+     */
+    public int getCommandQueueCapacity() {
+        return commandQueueCapacity;
+    }
+
+    /**
+     * Get policy of session, whose command queue is full.
+     * @return policy
+     */
+    public QueueOverflowPolicy getQueueOverflowPolicy() {
+        return queueOverflowPolicy;
+    }
+
+    /**
+     * Get number of threads, checking credentials.
+     * @return - value
+     */
+    public int getAuthThreads() {
+        return authThreads;
+    }
+
+    /**
+     * Get max length of line, received from client.
+     * @return max length in bytes, 0 is not limited
+     */
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * Get mode of execution of command processors.
+     * @return execution mode
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Get number of threads of command pool.
+     * @return - value
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Get listen backlog of server socket.
+     * @return backlog, 0 is system default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Get max number of connections, accepted per wakeup of acceptor.
+     * @return - value
+     */
+    public int getAcceptBatch() {
+        return acceptBatch;
+    }
+
+    /**
+     * Get accept rate limit.
+     * @return accepted connections per second, 0 is not limited
+     */
+    public int getAcceptRate() {
+        return acceptRate;
+    }
+
+    /**
+     * Get max number of connections, accepted at once above accept rate.
+     * @return - value
+     */
+    public int getAcceptBurst() {
+        return acceptBurst;
+    }
+
+    /**
+     * Get idle timeout.
+     * @return timeout in milliseconds, 0 is not limited
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Get login timeout.
+     * @return timeout in milliseconds, 0 is not limited
+     */
+    public long getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    /**
+     * Get session timeout.
+     * @return timeout in milliseconds, 0 is not limited
+     */
+    public long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
     /**
      * Get command parser object.
      * @return parser
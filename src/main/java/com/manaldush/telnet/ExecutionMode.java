@@ -0,0 +1,15 @@
+package com.manaldush.telnet;
+
+/**
+ * Modes of execution of command processors.
+ */
+public enum ExecutionMode {
+    /**Commands of session are executed by new platform thread, started when session gets commands to process.*/
+    THREAD_PER_SESSION,
+    /**Commands of session are executed by new virtual thread. Blocking command costs no platform thread.
+     * Requires Java 21 or later runtime.*/
+    VIRTUAL_THREAD,
+    /**Commands of sessions are executed by shared pool of fixed size. Commands of one session are executed
+     * one by one in arrival order.*/
+    POOLED
+}
@@ -24,6 +24,19 @@ public interface IClientSession {
      */
     void addBuffer(byte _b);
 
+    /**
+     * Add range of bytes to current read buffer of session. Default implementation adds bytes one by one.
+     *
+     * @param _src - source buffer, its position and limit are not changed
+     * @param _offset - index of first byte in source buffer
+     * @param _len - number of bytes
+     */
+    default void addBuffer(final ByteBuffer _src, final int _offset, final int _len) {
+        for (int i = _offset; i < _offset + _len; i++) {
+            addBuffer(_src.get(i));
+        }
+    }
+
     /**
      * Get buffer object.
      *
@@ -31,6 +44,22 @@ public interface IClientSession {
      */
     ByteBuffer getBuffer();
 
+    /**
+     * Take line, collected in read buffer, and reset read buffer. Default implementation decodes copy of buffer.
+     *
+     * @param _charset - charset of line
+     * @return line, empty if buffer is empty
+     */
+    default String takeLine(final Charset _charset) {
+        ByteBuffer buffer = getBuffer();
+        resetBuffer();
+        if (buffer == null) {
+            return "";
+        }
+        buffer.flip();
+        return new String(buffer.array(), buffer.arrayOffset(), buffer.limit(), _charset);
+    }
+
     /**
      * Decode byte buffer, that was read from connection.
      *
@@ -110,10 +139,11 @@ public interface IClientSession {
      * Sub negotiation process.
      *
      * @param _val - value of option
-     * @param _b - sub negotiation bytes between option value and SE command
+     * @param _b - sub negotiation bytes between option value and SE command, between position and limit of buffer.
+     * Buffer is reused by decoder after call and must not be kept
      * @param _charset - compatible charset
      */
-    void subNegotiation(byte _val, List<Byte> _b, Charset _charset);
+    void subNegotiation(byte _val, ByteBuffer _b, Charset _charset);
 
     /**
      * Print prompt char.
@@ -0,0 +1,14 @@
+package com.manaldush.telnet;
+
+/**
+ * Policies of session, whose command queue is full.
+ */
+public enum QueueOverflowPolicy {
+    /**Reading from client is paused until session executes half of queued commands. Commands, that were read
+     * already, are queued above capacity.*/
+    BACKPRESSURE,
+    /**New command is rejected, client gets busy message.*/
+    REJECT,
+    /**The oldest queued command is dropped to make room for new one.*/
+    DROP_OLDEST
+}
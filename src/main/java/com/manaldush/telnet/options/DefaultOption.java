@@ -2,8 +2,8 @@ package com.manaldush.telnet.options;
 
 import com.manaldush.telnet.IClientSession;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.List;
 
 public class DefaultOption extends Option {
     public DefaultOption(byte _v, boolean _isClientSupported, boolean _isServerSupported) {
@@ -11,7 +11,7 @@ public class DefaultOption extends Option {
     }
 
     @Override
-    protected void innerSubNegotiation(List<Byte> _b, IClientSession _session, Charset _charset) {
+    protected void innerSubNegotiation(ByteBuffer _b, IClientSession _session, Charset _charset) {
 
     }
 }
@@ -1,8 +1,8 @@
 package com.manaldush.telnet.options;
 
 import com.manaldush.telnet.IClientSession;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.List;
 
 import static com.manaldush.telnet.protocol.Constants.BYTE_FF;
 
@@ -89,11 +89,11 @@ public abstract class Option {
 
     /**
      * Set sub negotiation bytes, without telnet commands.
-     * @param _b - list of bytes
+     * @param _b - bytes between position and limit, buffer is reused by decoder after call and must not be kept
      * @param _session - session
      * @param _charset - charset
      */
-    public void setSubnegotiation(final List<Byte> _b, final IClientSession _session, final Charset _charset) {
+    public void setSubnegotiation(final ByteBuffer _b, final IClientSession _session, final Charset _charset) {
         if (isServerSupported || isClientSupported) {
             innerSubNegotiation(_b, _session, _charset);
         } else {
@@ -103,11 +103,11 @@ public abstract class Option {
 
     /**
      * Define method for processing sub negotiation process.
-     * @param _b - list of bytes
+     * @param _b - bytes between position and limit, buffer is reused by decoder after call and must not be kept
      * @param _session - session
      * @param _charset - charset
      */
-    protected abstract void innerSubNegotiation(List<Byte> _b, IClientSession _session, Charset _charset);
+    protected abstract void innerSubNegotiation(ByteBuffer _b, IClientSession _session, Charset _charset);
 
     private void genIllegalState() {
         throw new IllegalStateException(String.format("Option [%d] is not supported", iValue));
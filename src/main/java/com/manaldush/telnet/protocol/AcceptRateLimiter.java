@@ -0,0 +1,57 @@
+package com.manaldush.telnet.protocol;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket, limiting rate of accepted connections. Bucket holds up to burst tokens and is refilled with rate tokens
+ * per second, every accepted connection takes one token. Limiter is shared by worker loops in SO_REUSEPORT mode, so
+ * it is thread safe.
+ */
+final class AcceptRateLimiter {
+    /**Nanoseconds in second.*/
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    /**Tokens per second.*/
+    private final int rate;
+    /**Max number of tokens.*/
+    private final int burst;
+    /**Available tokens.*/
+    private double tokens;
+    /**Time of last refill in nanoseconds.*/
+    private long lastRefill;
+
+    /**
+     * Construct limiter with full bucket.
+     * @param _rate - accepted connections per second
+     * @param _burst - max number of connections, accepted at once
+     * @param _now - current time in nanoseconds
+     * @throws IllegalArgumentException - if _rate or _burst <= 0
+     */
+    AcceptRateLimiter(final int _rate, final int _burst, final long _now) {
+        Preconditions.checkArgument(_rate > 0);
+        Preconditions.checkArgument(_burst > 0);
+        rate = _rate;
+        burst = _burst;
+        tokens = _burst;
+        lastRefill = _now;
+    }
+
+    /**
+     * Take token for new connection.
+     * @param _now - current time in nanoseconds
+     * @return TRUE if connection can be accepted, FALSE if it should be dropped
+     */
+    synchronized boolean tryAcquire(final long _now) {
+        long elapsed = _now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + (double) elapsed * rate / SECOND);
+            lastRefill = _now;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
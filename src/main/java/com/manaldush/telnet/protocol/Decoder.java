@@ -15,7 +15,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import static com.manaldush.telnet.protocol.Constants.BYTE_FF;
@@ -36,7 +35,8 @@ final class Decoder implements IDecoder {
     private byte option;
     private boolean crFlag = RESET_CR_FLAG;
     private final Charset charset = Charset.forName("ASCII");
-    private List<Byte> subNegotiation = null;
+    /**Bytes of sub negotiation, allocated with first sub negotiation and reused by the next ones.*/
+    private ByteBuffer subNegotiation = null;
     private static final int MAX_NEGOTIATION_LEN = 1000;
 
     Decoder(final IClientSession _session) {
@@ -80,6 +80,11 @@ final class Decoder implements IDecoder {
                     resetIAC();
                     cmdFlag = true;
                     processCommandByte(b);
+                } else if (!crFlag && (b & BYTE_FF) != Constants.CR) {
+                    // run of data bytes up to next IAC or CR is added by one copy
+                    int end = scanData(_buffer, counter + 1, _bytesNum);
+                    session.addBuffer(_buffer, counter, end - counter);
+                    counter = end - 1;
                 } else {
                     processDataByte(b, result);
                 }
@@ -145,7 +150,9 @@ final class Decoder implements IDecoder {
                 }
                 break;
             case Constants.SE:
-                SubNegotiationEndCommand.build(session, subNegotiation, option, charset).process();
+                ByteBuffer payload = subNegotiationBuffer();
+                payload.flip();
+                SubNegotiationEndCommand.build(session, payload, option, charset).process();
                 reset();
                 break;
             case Constants.SB:
@@ -161,7 +168,9 @@ final class Decoder implements IDecoder {
         cmdFlag = RESET_CMD_FLAG;
         cmd = RESET_BYTE_VALUE;
         option = RESET_BYTE_VALUE;
-        subNegotiation = null;
+        if (subNegotiation != null) {
+            subNegotiation.clear();
+        }
         resetIAC();
         resetCR();
     }
@@ -183,18 +192,15 @@ final class Decoder implements IDecoder {
                 option = _b;
                 return;
             }
-            if (subNegotiation == null) {
-                subNegotiation = new LinkedList<>();
-            }
             if (iacFlag && ((_b & BYTE_FF)) == Constants.SE) {
                 cmd = _b;
                 decodeCommand();
-            } else if (subNegotiation.size() == MAX_NEGOTIATION_LEN) {
+            } else if (!subNegotiationBuffer().hasRemaining()) {
                 throw new DecodingException(String.format(
                         "Sub negotiation process: bytes length is more then max negotiation length [%d]",
                         MAX_NEGOTIATION_LEN));
             } else {
-                subNegotiation.add(_b);
+                subNegotiation.put(_b);
             }
         } else {
             option = _b;
@@ -202,21 +208,19 @@ final class Decoder implements IDecoder {
         }
     }
 
+    private ByteBuffer subNegotiationBuffer() {
+        if (subNegotiation == null) {
+            subNegotiation = ByteBuffer.allocate(MAX_NEGOTIATION_LEN);
+        }
+        return subNegotiation;
+    }
+
     private void processDataByte(final byte _b, final List<String> _result) throws IOException {
         if ((_b & BYTE_FF) == Constants.CR) {
             crFlag = true;
         } else if ((_b & BYTE_FF) == Constants.LF && crFlag) {
-            ByteBuffer buffer = session.getBuffer();
-            session.resetBuffer();
             resetCR();
-            if (buffer != null) {
-                buffer.flip();
-                byte[] bytesBuffer = new byte[buffer.limit()];
-                buffer.get(bytesBuffer, 0, buffer.limit());
-                _result.add(new String(bytesBuffer, charset));
-            } else {
-                _result.add("");
-            }
+            _result.add(session.takeLine(charset));
         } else if (crFlag) {
             session.addBuffer((byte) Constants.CR);
         } else {
@@ -226,6 +230,34 @@ final class Decoder implements IDecoder {
 
     }
 
+    /**
+     * Find next IAC or CR byte.
+     * @param _buffer - buffer for decoding
+     * @param _from - index of first checked byte
+     * @param _to - index after last checked byte
+     * @return index of IAC or CR byte, or _to if there is no such byte
+     */
+    private static int scanData(final ByteBuffer _buffer, final int _from, final int _to) {
+        if (_buffer.hasArray()) {
+            byte[] array = _buffer.array();
+            int offset = _buffer.arrayOffset();
+            for (int i = _from; i < _to; i++) {
+                int b = array[offset + i] & BYTE_FF;
+                if (b == Constants.IAC || b == Constants.CR) {
+                    return i;
+                }
+            }
+            return _to;
+        }
+        for (int i = _from; i < _to; i++) {
+            int b = _buffer.get(i) & BYTE_FF;
+            if (b == Constants.IAC || b == Constants.CR) {
+                return i;
+            }
+        }
+        return _to;
+    }
+
     private boolean checkIAC(final byte _b) {
         return (_b & BYTE_FF) == Constants.IAC;
     }
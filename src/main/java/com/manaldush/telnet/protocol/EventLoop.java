@@ -0,0 +1,912 @@
+package com.manaldush.telnet.protocol;
+
+import com.manaldush.telnet.Command;
+import com.manaldush.telnet.CommandTemplate;
+import com.manaldush.telnet.Configuration;
+import com.manaldush.telnet.IClientSession;
+import com.manaldush.telnet.ICommandProcessor;
+import com.manaldush.telnet.ICommandProcessorFactory;
+import com.manaldush.telnet.commands.HasNoAccessCommand;
+import com.manaldush.telnet.commands.UnknownCommand;
+import com.manaldush.telnet.exceptions.AuthTelnetException;
+import com.manaldush.telnet.exceptions.GeneralTelnetException;
+import com.manaldush.telnet.security.AuthTelnetClientSession;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.manaldush.telnet.protocol.Constants.CRLF;
+
+/**
+ * Worker event loop. Owns its own selector and serves read events of sessions, which were accepted by controller
+ * and assigned to this loop.
+ */
+class EventLoop implements Runnable {
+    private static final SocketOption<Boolean> SO_REUSEADDR_OPT    = StandardSocketOptions.SO_REUSEADDR;
+    private static final SocketOption<Integer> SO_RCVBUF_OPT       = StandardSocketOptions.SO_RCVBUF;
+    private static final SocketOption<Integer> SO_SNDBUF_OPT       = StandardSocketOptions.SO_SNDBUF;
+    private static final SocketOption<Boolean> TCP_NODELAY_OPT     = StandardSocketOptions.TCP_NODELAY;
+    private static final SocketOption<Boolean> SO_KEEPALIVE_OPT    = StandardSocketOptions.SO_KEEPALIVE;
+    /**Init size of session line buffer.*/
+    private static final int INIT_BUFFER_SIZE = 10;
+    /**Duration of tick of session timer in milliseconds.*/
+    private static final long TIMER_TICK = 100;
+    /**Number of buckets of session timer.*/
+    private static final int TIMER_WHEEL_SIZE = 512;
+    /**Time, given to closed session to deliver its last output, before its channel is closed.*/
+    private static final long CLOSE_LINGER = 5000;
+    private static final Command UNKNOWN_COMMAND = createUnknownCommand();
+    private static final Command HAS_NO_ACCESS_COMMAND = createHasNoAccessCommand();
+    /**Owner controller.*/
+    private final ImplController controller;
+    /**Selector of this loop.*/
+    private final Selector selector;
+    /**Read buffers of this loop.*/
+    private final ReadBufferPool buffers;
+    /**Sessions served by this loop. Sessions are removed by command threads too, so registry is concurrent.*/
+    private final Map<Channel, AuthTelnetClientSession> sessions = new ConcurrentHashMap<>();
+    /**Channels accepted by controller and waiting for registration in selector of this loop.*/
+    private final Queue<ByteChannel> registrations = new ConcurrentLinkedQueue<>();
+    /**Tasks, given to this loop by other threads.*/
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**Sessions, whose reading was paused by full task queue and should be resumed.*/
+    private final Queue<ImplTelnetClientSession> resumes = new ConcurrentLinkedQueue<>();
+    /**Loopback channels with data from client, they are not selectable and are notified by client.*/
+    private final Queue<LoopbackChannel> readables = new ConcurrentLinkedQueue<>();
+    /**Sessions with queued output, waiting for interest in write readiness.*/
+    private final Queue<ImplTelnetClientSession> flushes = new ConcurrentLinkedQueue<>();
+    /**Channels of sessions, which exceeded read quota or were resumed after pause and may have unread data, in order
+     * of service. Used by thread of this loop only.*/
+    private final Set<ByteChannel> deferred = new LinkedHashSet<>();
+    /**Number of sessions assigned to this loop, including not registered yet.*/
+    private final AtomicInteger load = new AtomicInteger();
+    /**Number of write syscalls, saved by gathering writes of sessions of this loop.*/
+    private final AtomicLong savedWrites = new AtomicLong();
+    /**Timer of session timeouts, used by thread of this loop only.*/
+    private final HashedWheelTimer timer = new HashedWheelTimer(TIMER_TICK, TIMER_WHEEL_SIZE, now());
+    /**Scheduled timeouts of sessions, cancelled when session is reset. Used by thread of this loop only.*/
+    private final Map<Channel, List<SessionTimeout>> timeouts = new HashMap<>();
+    /**Thread of this loop.*/
+    private Thread thread = null;
+    /**Loop finished, channels are not registered anymore.*/
+    private volatile boolean exited = false;
+
+    /**
+     * Construct worker event loop.
+     * @param _controller - owner controller
+     * @param _selector - selector of this loop
+     * @param _buffers - pool of read buffers
+     */
+    EventLoop(final ImplController _controller, final Selector _selector, final ReadBufferPool _buffers) {
+        controller = _controller;
+        selector = _selector;
+        buffers = _buffers;
+    }
+
+    /**
+     * Start thread of this loop.
+     * @param _name - name of thread
+     */
+    void start(final String _name) {
+        thread = new Thread(this, _name);
+        thread.start();
+    }
+
+    /**
+     * Wake up loop and wait until it finish. Loop finishes when controller is not started.
+     */
+    void join() {
+        selector.wakeup();
+        if (thread != null && thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accept connections on own listening socket. Called before loop is started.
+     * @param _server - listening socket
+     * @throws IOException - I/O errors
+     */
+    void listen(final ServerSocketChannel _server) throws IOException {
+        _server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hand accepted channel over to this loop. Channel is registered in selector by the loop thread. Channel, handed
+     * over to finished loop, is closed and its session slot is released.
+     * @param _channel - accepted client channel
+     */
+    void register(final ByteChannel _channel) {
+        load.incrementAndGet();
+        registrations.add(_channel);
+        if (exited) {
+            // loop may have drained registrations before channel was added
+            releaseRegistrations();
+            return;
+        }
+        selector.wakeup();
+    }
+
+    private void releaseRegistrations() {
+        ByteChannel channel;
+        while ((channel = registrations.poll()) != null) {
+            releaseChannel(channel);
+        }
+    }
+
+    /**
+     * Notify loop about data or end of stream in loopback channel.
+     * @param _channel - loopback channel
+     */
+    void readable(final LoopbackChannel _channel) {
+        readables.add(_channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask loop to flush queued output of session, when its socket becomes writable.
+     * @param _session - session with queued output
+     */
+    void requestFlush(final ImplTelnetClientSession _session) {
+        flushes.add(_session);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask loop to resume reading from session, whose task queue was drained.
+     * @param _session - session
+     */
+    void resumeRead(final ImplTelnetClientSession _session) {
+        resumes.add(_session);
+        selector.wakeup();
+    }
+
+    /**
+     * Execute task by thread of this loop.
+     * @param _task - task
+     */
+    void submit(final Runnable _task) {
+        tasks.add(_task);
+        selector.wakeup();
+    }
+
+    /**
+     * Execute task, processing commands of session.
+     * @param _task - task
+     * @throws java.util.concurrent.RejectedExecutionException - if controller was stopped
+     */
+    void execute(final Runnable _task) {
+        controller.execute(_task);
+    }
+
+    /**
+     * Count write syscalls, saved by gathering write.
+     * @param _number - number of saved writes
+     */
+    void addSavedWrites(final int _number) {
+        savedWrites.addAndGet(_number);
+    }
+
+    /**
+     * Number of write syscalls, saved by gathering writes.
+     * @return saved writes
+     */
+    long getSavedWrites() {
+        return savedWrites.get();
+    }
+
+    /**
+     * Number of sessions assigned to this loop.
+     * @return sessions number
+     */
+    int getLoad() {
+        return load.get();
+    }
+
+    @Override
+    public final void run() {
+        try {
+            while (controller.isStarted()) {
+                processKeys();
+            }
+        } catch (Throwable e) {
+            // loop can't serve its sessions anymore, new sessions must not be assigned to it
+            e.printStackTrace();
+            controller.abort();
+        } finally {
+            // close all sessions of this loop
+            for (Map.Entry<Channel, AuthTelnetClientSession> entry : sessions.entrySet()) {
+                entry.getValue().getSession().close();
+                // queued output is not flushed anymore
+                resetSession(entry.getKey());
+            }
+            exited = true;
+            releaseRegistrations();
+        }
+    }
+
+    private void processKeys() throws IOException {
+        long delay = timer.nextTickDelay(now());
+        if (!deferred.isEmpty()) {
+            // deferred sessions have data already, don't wait for new events
+            selector.selectNow();
+        } else if (delay < 0) {
+            selector.select();
+        } else {
+            selector.select(delay);
+        }
+        registerChannels();
+        if (!controller.isStarted()) {
+            return;
+        }
+        ImplTelnetClientSession flushed;
+        while ((flushed = flushes.poll()) != null) {
+            flushed.enableFlush();
+        }
+        timer.expire(now());
+        ImplTelnetClientSession resumed;
+        while ((resumed = resumes.poll()) != null) {
+            resumed.enableRead();
+            // data, received during pause, doesn't produce new event for loopback channel
+            deferred.add(resumed.getChannel());
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        // sessions, deferred on previous pass, are served first, in round robin order
+        if (!deferred.isEmpty()) {
+            ByteChannel[] round = deferred.toArray(new ByteChannel[deferred.size()]);
+            deferred.clear();
+            for (ByteChannel channel : round) {
+                processRead(channel);
+            }
+        }
+        LoopbackChannel loopback;
+        while ((loopback = readables.poll()) != null) {
+            // data, written by client after this point, notifies loop again
+            loopback.clearSignal();
+            if (!deferred.contains(loopback)) {
+                processRead(loopback);
+            }
+        }
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            if (key.isValid() && key.isAcceptable()) {
+                controller.acceptConnections((ServerSocketChannel) key.channel(), this);
+                continue;
+            }
+            if (key.isValid() && key.isWritable()) {
+                ((ImplTelnetClientSession) key.attachment()).flush();
+            }
+            if (key.isValid() && key.isReadable() && !deferred.contains(key.channel())) {
+                processRead((ByteChannel) key.channel());
+            }
+        }
+    }
+
+    private void registerChannels() {
+        ByteChannel client;
+        while ((client = registrations.poll()) != null) {
+            try {
+                // loopback channels are not selectable and have no key
+                SelectionKey clientKey = null;
+                if (client instanceof SocketChannel) {
+                    clientKey = configureClientSocket((SocketChannel) client);
+                }
+                Configuration conf = controller.getConf().getConf();
+                ImplTelnetClientSession session = new ImplTelnetClientSession(client, this, INIT_BUFFER_SIZE,
+                        clientKey, conf.getPrompt(), conf.getCommandQueueCapacity(), conf.getQueueOverflowPolicy(),
+                        conf.getMaxLineLength());
+                if (clientKey != null) {
+                    clientKey.attach(session);
+                }
+                AuthTelnetClientSession authSession = new AuthTelnetClientSession(session);
+                sessions.put(client, authSession);
+                scheduleTimeouts(client, authSession, session);
+                getUserName(session);
+            } catch (IOException e) {
+                e.printStackTrace();
+                AuthTelnetClientSession registered = sessions.get(client);
+                if (registered != null) {
+                    registered.getSession().close();
+                } else {
+                    releaseChannel(client);
+                }
+            }
+        }
+    }
+
+    private void processRead(final ByteChannel _client) {
+        if (_client == null) {
+            return;
+        }
+        AuthTelnetClientSession authSession = sessions.get(_client);
+        IClientSession session;
+        // Check Session was reset
+        if (authSession == null) {
+            return;
+        }
+        session = authSession.getSession();
+        if (pauseRead(authSession)) {
+            return;
+        }
+        if (session instanceof ImplTelnetClientSession) {
+            ((ImplTelnetClientSession) session).touch(now());
+        }
+        // output, produced during processing of read event, is written at once
+        beginBatch(session);
+        try {
+            List<String> lines = this.readData(_client, session);
+            if (lines == null || lines.isEmpty()) {
+                return;
+            }
+            int first = authenticate(_client, lines, authSession);
+            if (authSession.getState() == AuthTelnetClientSession.State.AUTHENTICATED) {
+                addTasks(lines.subList(first, lines.size()), authSession);
+            }
+            pauseRead(authSession);
+        } catch (GeneralTelnetException | IOException e) {
+            e.printStackTrace();
+            session.close();
+        } finally {
+            endBatch(session);
+        }
+    }
+
+    /**
+     * Feed decoded lines to authentication of session in arrival order: the first line is user name, the next one is
+     * password. Credentials are checked by authentication engine, lines after password are processed, when check
+     * completes.
+     * @param _channel - client channel
+     * @param _lines - decoded lines
+     * @param _authSession - session
+     * @return index of the first line, that was not consumed by authentication
+     * @throws IOException - I/O errors
+     */
+    private int authenticate(final ByteChannel _channel, final List<String> _lines,
+                             final AuthTelnetClientSession _authSession) throws IOException {
+        int index = 0;
+        while (index < _lines.size()) {
+            AuthTelnetClientSession.State state = _authSession.getState();
+            if (state == AuthTelnetClientSession.State.USER_NAME) {
+                _authSession.setUserName(_lines.get(index++));
+                this.getPassword(_authSession.getSession());
+            } else if (state == AuthTelnetClientSession.State.PASSWORD) {
+                _authSession.setPasswd(_lines.get(index++));
+                checkCredentials(_channel, _authSession, new ArrayList<>(_lines.subList(index, _lines.size())));
+                return _lines.size();
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Check credentials by authentication engine. Reading from session is paused until check completes.
+     * @param _channel - client channel
+     * @param _authSession - session
+     * @param _lines - lines, received after password
+     */
+    private void checkCredentials(final ByteChannel _channel, final AuthTelnetClientSession _authSession,
+                                  final List<String> _lines) {
+        try {
+            controller.authenticate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        _authSession.checkUser();
+                    } finally {
+                        submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                completeLogin(_channel, _authSession, _lines);
+                            }
+                        });
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            _authSession.getSession().close();
+        }
+    }
+
+    /**
+     * Complete login of session, whose credentials were checked, and resume reading from it.
+     * @param _channel - client channel
+     * @param _authSession - session
+     * @param _lines - lines, received after password
+     */
+    private void completeLogin(final ByteChannel _channel, final AuthTelnetClientSession _authSession,
+                               final List<String> _lines) {
+        if (sessions.get(_channel) != _authSession) {
+            // session was reset during check
+            return;
+        }
+        IClientSession session = _authSession.getSession();
+        beginBatch(session);
+        try {
+            if (_authSession.getState() != AuthTelnetClientSession.State.AUTHENTICATED) {
+                session.write(Constants.RED);
+                session.write("Illegal credentials");
+                session.write(Constants.RESET_COLOR);
+                session.write(CRLF);
+                throw new AuthTelnetException("Authentification error");
+            }
+            session.write(Constants.GREEN);
+            session.write(controller.getConf().getConf().getGreeting());
+            session.write(Constants.RESET_COLOR);
+            session.write(CRLF);
+            session.prompt();
+            addTasks(_lines, _authSession);
+        } catch (GeneralTelnetException | IOException e) {
+            e.printStackTrace();
+            session.close();
+            return;
+        } finally {
+            endBatch(session);
+        }
+        if (session instanceof ImplTelnetClientSession) {
+            ((ImplTelnetClientSession) session).enableRead();
+        }
+        // data, received during check
+        deferred.add(_channel);
+    }
+
+    private void scheduleTimeouts(final Channel _channel, final AuthTelnetClientSession _authSession,
+                                  final ImplTelnetClientSession _session) {
+        Configuration conf = controller.getConf().getConf();
+        long now = now();
+        _session.touch(now);
+        List<SessionTimeout> scheduled = new ArrayList<>(3);
+        if (conf.getLoginTimeout() > 0) {
+            scheduled.add(new LoginTimeout(_channel, _authSession).schedule(conf.getLoginTimeout(), now));
+        }
+        if (conf.getIdleTimeout() > 0) {
+            scheduled.add(new IdleTimeout(_channel, _authSession, _session, conf.getIdleTimeout())
+                    .schedule(conf.getIdleTimeout(), now));
+        }
+        if (conf.getSessionTimeout() > 0) {
+            scheduled.add(new SessionTimeout(_channel, _authSession, "Session timeout")
+                    .schedule(conf.getSessionTimeout(), now));
+        }
+        if (!scheduled.isEmpty()) {
+            timeouts.put(_channel, scheduled);
+        }
+    }
+
+    /**
+     * Schedule release of closed session, that didn't deliver its queued output in time. May be called by any thread.
+     * @param _session - closed session
+     */
+    void lingerClose(final ImplTelnetClientSession _session) {
+        if (Thread.currentThread() == thread) {
+            scheduleLinger(_session);
+        } else {
+            // timer belongs to thread of this loop
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleLinger(_session);
+                }
+            });
+        }
+    }
+
+    private void scheduleLinger(final ImplTelnetClientSession _session) {
+        Channel channel = _session.getChannel();
+        AuthTelnetClientSession authSession = sessions.get(channel);
+        if (authSession == null) {
+            // session was released already
+            return;
+        }
+        List<SessionTimeout> scheduled = timeouts.get(channel);
+        if (scheduled == null) {
+            scheduled = new ArrayList<>(1);
+            timeouts.put(channel, scheduled);
+        }
+        scheduled.add(new CloseLinger(channel, authSession, _session).schedule(CLOSE_LINGER, now()));
+    }
+
+    /**
+     * Cancel timeouts of reset session, so timer doesn't keep session till deadline. Must be called by thread of this
+     * loop.
+     * @param _channel - channel of session
+     */
+    private void cancelTimeouts(final Channel _channel) {
+        List<SessionTimeout> scheduled = timeouts.remove(_channel);
+        if (scheduled == null) {
+            return;
+        }
+        for (SessionTimeout timeout : scheduled) {
+            timeout.cancel();
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Timeout of session, closes session on expiration. Timeouts are cancelled, when session is reset.
+     */
+    private class SessionTimeout implements Runnable {
+        /**Channel of session.*/
+        private final Channel channel;
+        /**Session.*/
+        private final AuthTelnetClientSession authSession;
+        /**Message to client.*/
+        private final String message;
+        /**Scheduled timeout of timer.*/
+        private HashedWheelTimer.Timeout timeout = null;
+
+        SessionTimeout(final Channel _channel, final AuthTelnetClientSession _authSession,
+                       final String _message) {
+            channel = _channel;
+            authSession = _authSession;
+            message = _message;
+        }
+
+        @Override
+        public void run() {
+            if (sessions.get(channel) != authSession || !isExpired()) {
+                return;
+            }
+            IClientSession session = authSession.getSession();
+            beginBatch(session);
+            try {
+                session.write(Constants.RED);
+                session.write(message);
+                session.write(Constants.RESET_COLOR);
+                session.write(CRLF);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                endBatch(session);
+            }
+            // client may not read its last output, channel is closed after linger anyway
+            session.close();
+        }
+
+        AuthTelnetClientSession getAuthSession() {
+            return authSession;
+        }
+
+        Channel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Schedule this timeout in timer of loop.
+         * @param _delay - delay in milliseconds
+         * @param _now - current time in milliseconds
+         * @return this timeout
+         */
+        SessionTimeout schedule(final long _delay, final long _now) {
+            timeout = timer.schedule(this, _delay, _now);
+            return this;
+        }
+
+        /**
+         * Cancel this timeout.
+         */
+        void cancel() {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * Check that session should be closed.
+         * @return TRUE if session should be closed
+         */
+        boolean isExpired() {
+            return true;
+        }
+    }
+
+    /**
+     * Deadline of closed session to deliver its queued output. Output, that client didn't read till deadline, is
+     * dropped and session is released.
+     */
+    private final class CloseLinger extends SessionTimeout {
+        /**Closed session.*/
+        private final ImplTelnetClientSession session;
+
+        CloseLinger(final Channel _channel, final AuthTelnetClientSession _authSession,
+                    final ImplTelnetClientSession _session) {
+            super(_channel, _authSession, null);
+            session = _session;
+        }
+
+        @Override
+        public void run() {
+            if (sessions.get(getChannel()) != getAuthSession()) {
+                return;
+            }
+            session.abortClose();
+        }
+    }
+
+    /**
+     * Timeout of entering credentials.
+     */
+    private final class LoginTimeout extends SessionTimeout {
+        LoginTimeout(final Channel _channel, final AuthTelnetClientSession _authSession) {
+            super(_channel, _authSession, "Login timeout");
+        }
+
+        @Override
+        boolean isExpired() {
+            // check of credentials, that didn't complete in time, is expired too
+            return getAuthSession().getState() != AuthTelnetClientSession.State.AUTHENTICATED;
+        }
+    }
+
+    /**
+     * Timeout of session without input from client. Input doesn't reschedule timeout, timeout checks time of last
+     * input on expiration and is scheduled again for the rest of time.
+     */
+    private final class IdleTimeout extends SessionTimeout {
+        /**Session, tracking time of input.*/
+        private final ImplTelnetClientSession session;
+        /**Idle timeout in milliseconds.*/
+        private final long timeout;
+
+        IdleTimeout(final Channel _channel, final AuthTelnetClientSession _authSession,
+                    final ImplTelnetClientSession _session, final long _timeout) {
+            super(_channel, _authSession, "Idle timeout");
+            session = _session;
+            timeout = _timeout;
+        }
+
+        @Override
+        boolean isExpired() {
+            long now = now();
+            long rest = session.getLastActivity() + timeout - now;
+            if (rest > 0) {
+                schedule(rest, now);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stop read events of session, whose credentials are being checked or whose task queue is full.
+     * @param _authSession - session
+     * @return TRUE if reading is paused
+     */
+    private static boolean pauseRead(final AuthTelnetClientSession _authSession) {
+        IClientSession session = _authSession.getSession();
+        boolean impl = session instanceof ImplTelnetClientSession;
+        if (_authSession.getState() != AuthTelnetClientSession.State.CHECKING
+                && !(impl && ((ImplTelnetClientSession) session).isReadPaused())) {
+            return false;
+        }
+        if (impl) {
+            ((ImplTelnetClientSession) session).disableRead();
+        }
+        return true;
+    }
+
+    private static void beginBatch(final IClientSession _session) {
+        if (_session instanceof ImplTelnetClientSession) {
+            ((ImplTelnetClientSession) _session).beginBatch();
+        }
+    }
+
+    private static void endBatch(final IClientSession _session) {
+        if (_session instanceof ImplTelnetClientSession) {
+            ((ImplTelnetClientSession) _session).endBatch();
+        }
+    }
+
+    private SelectionKey configureClientSocket(final SocketChannel _channel) throws IOException {
+        _channel.configureBlocking(false);
+        // Unix domain sockets support only buffer sizes
+        ImplController.setOption(_channel, SO_REUSEADDR_OPT, controller.getConf().getConf().getSoReuseAaddr());
+        ImplController.setOption(_channel, SO_RCVBUF_OPT, controller.getConf().getConf().getSoRcvBuf());
+        ImplController.setOption(_channel, SO_SNDBUF_OPT, controller.getConf().getConf().getSoSndBuf());
+        ImplController.setOption(_channel, TCP_NODELAY_OPT, controller.getConf().getConf().getTcpNoDelay());
+        ImplController.setOption(_channel, SO_KEEPALIVE_OPT, true);
+        return _channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Remove session of channel from this loop and close channel. Repeated calls for the same channel are ignored.
+     * @param _channel - client channel
+     */
+    void resetSession(final Channel _channel) {
+        if (sessions.remove(_channel) == null) {
+            return;
+        }
+        releaseChannel(_channel);
+        if (Thread.currentThread() == thread) {
+            cancelTimeouts(_channel);
+        } else {
+            // timer belongs to thread of this loop
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    cancelTimeouts(_channel);
+                }
+            });
+        }
+    }
+
+    private void releaseChannel(final Channel _channel) {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        load.decrementAndGet();
+        controller.releaseSession();
+    }
+
+    /**
+     * Read available data from channel and decode it. Data is read in chunks of pooled buffer size, reading stops
+     * when socket has no more data or read quota of session is exceeded. Channel of session, that exceeded quota, is
+     * deferred till the next pass of loop.
+     * @param _channel - client channel
+     * @param _session - client session
+     * @return decoded lines or null if connection was closed
+     * @throws IOException - I/O errors
+     * @throws GeneralTelnetException - decoding errors
+     */
+    private List<String> readData(final ByteChannel _channel, final IClientSession _session)
+            throws IOException, GeneralTelnetException {
+        ByteBuffer buffer = buffers.acquire();
+        Configuration conf = controller.getConf().getConf();
+        try {
+            List<String> lines = new ArrayList<>();
+            long total = 0;
+            for (;;) {
+                int numberBytes = _channel.read(buffer);
+                if (numberBytes < 0) {
+                    // connection was closed, queued output can't be delivered
+                    _session.close();
+                    resetSession(_channel);
+                    return null;
+                } else if (numberBytes == 0) {
+                    break;
+                }
+                List<String> decoded = _session.decode(buffer, numberBytes);
+                if (decoded == null) {
+                    // session was closed
+                    return null;
+                }
+                lines.addAll(decoded);
+                buffer.clear();
+                if (numberBytes < buffer.capacity()) {
+                    // socket was drained
+                    break;
+                }
+                total += numberBytes;
+                if ((conf.getReadQuotaBytes() > 0 && total >= conf.getReadQuotaBytes())
+                        || (conf.getReadQuotaLines() > 0 && lines.size() >= conf.getReadQuotaLines())) {
+                    // give other sessions their turn, the rest is read on the next pass
+                    deferred.add(_channel);
+                    break;
+                }
+            }
+            return lines;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Resolve all lines of one read and hand commands over to session as one batch.
+     * @param _lines - decoded lines
+     * @param _session - session
+     * @throws IOException - I/O errors
+     */
+    private void addTasks(final List<String> _lines, final AuthTelnetClientSession _session) throws IOException {
+        if (_lines == null || _lines.size() == 0) {
+            return;
+        }
+        List<Command> commands = new ArrayList<>(_lines.size());
+        Iterator<String> iterator = _lines.iterator();
+        while (iterator.hasNext()) {
+            String line = iterator.next();
+            if (line == null || line.isEmpty()) {
+                dispatch(commands, _session.getSession());
+                _session.getSession().prompt();
+                continue;
+            }
+            Command cmd = null;
+            try {
+                cmd = controller.search(line);
+            } catch (ParseException e) {
+                e.printStackTrace();
+                cmd = null;
+            }
+            if (cmd == null) {
+                cmd = UNKNOWN_COMMAND;
+            } else if (!_session.checkRoles(cmd.getTemplate())) {
+                cmd = HAS_NO_ACCESS_COMMAND;
+            }
+            commands.add(cmd);
+        }
+        dispatch(commands, _session.getSession());
+    }
+
+    private static void dispatch(final List<Command> _commands, final IClientSession _session) {
+        if (_commands.isEmpty()) {
+            return;
+        }
+        if (_session instanceof ImplTelnetClientSession) {
+            ((ImplTelnetClientSession) _session).addTasks(_commands);
+        } else {
+            for (Command cmd : _commands) {
+                _session.addTask(cmd);
+            }
+        }
+        _commands.clear();
+    }
+
+    private static Command createUnknownCommand() {
+        CommandTemplate unknownCommand = CommandTemplate.build("unknown command", "unknown command",
+                new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
+                return UnknownCommand.build(_session);
+            }
+        });
+        unknownCommand.setInline(true);
+        return Command.build(unknownCommand);
+    }
+
+    private static Command createHasNoAccessCommand() {
+        final CommandTemplate hasNoAccessCommand = CommandTemplate.build("has no access",
+                "has no access", new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
+                return HasNoAccessCommand.build(_session);
+            };
+        });
+        hasNoAccessCommand.setInline(true);
+        return Command.build(hasNoAccessCommand);
+    }
+
+    private void getUserName(final IClientSession _session) throws IOException {
+        _session.write("username:");
+    }
+
+    private void getPassword(final IClientSession _session) throws IOException {
+        _session.write("password:");
+    }
+}
@@ -0,0 +1,89 @@
+package com.manaldush.telnet.protocol;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.manaldush.telnet.exceptions.ConfigurationException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Execution engine, delegating tasks to executor service.
+ */
+final class ExecutorExecutionEngine implements IExecutionEngine {
+    /**Executor of tasks.*/
+    private final ExecutorService executor;
+
+    /**
+     * Construct engine.
+     * @param _executor - executor of tasks
+     */
+    ExecutorExecutionEngine(final ExecutorService _executor) {
+        executor = Preconditions.checkNotNull(_executor);
+    }
+
+    /**
+     * Build engine, starting new virtual thread for every task. Virtual threads are looked up at runtime, so library
+     * still runs on Java 17.
+     * @return engine
+     * @throws ConfigurationException - if runtime doesn't support virtual threads
+     */
+    static ExecutorExecutionEngine virtualThreads() throws ConfigurationException {
+        try {
+            return new ExecutorExecutionEngine(
+                    (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new ConfigurationException("Virtual threads are not supported by runtime", e);
+        }
+    }
+
+    /**
+     * Build engine with fixed number of threads, shared by all sessions. Every session gives to engine one task at a
+     * time, so commands of session keep arrival order.
+     * @param _threads - number of threads
+     * @return engine
+     */
+    static ExecutorExecutionEngine pool(final int _threads) {
+        return pool(_threads, "telnet-command-%d");
+    }
+
+    /**
+     * Build engine with fixed number of named threads.
+     * @param _threads - number of threads
+     * @param _nameFormat - format of thread names with thread number
+     * @return engine
+     */
+    static ExecutorExecutionEngine pool(final int _threads, final String _nameFormat) {
+        return new ExecutorExecutionEngine(Executors.newFixedThreadPool(_threads,
+                new ThreadFactoryBuilder().setNameFormat(_nameFormat).build()));
+    }
+
+    @Override
+    public void execute(final Runnable _task) {
+        executor.execute(_task);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    @Override
+    public double getUtilization() {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            return (double) pool.getActiveCount() / pool.getMaximumPoolSize();
+        }
+        return 0;
+    }
+}
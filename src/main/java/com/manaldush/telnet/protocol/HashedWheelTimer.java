@@ -0,0 +1,185 @@
+package com.manaldush.telnet.protocol;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel. Timeouts are put in buckets by their deadline tick, scheduling and cancelling cost O(1).
+ * Timer has no thread of its own, it is driven by event loop, which calls {@link #expire(long)}. Timer is used only by
+ * thread of this loop, so it is not thread safe.
+ */
+final class HashedWheelTimer {
+    /**Duration of one tick in milliseconds.*/
+    private final long tickDuration;
+    /**Buckets of wheel, number of buckets is power of two.*/
+    private final Timeout[] wheel;
+    /**Mask for bucket index.*/
+    private final int mask;
+    /**Start time of timer in milliseconds.*/
+    private final long startTime;
+    /**Next tick to process.*/
+    private long tick = 0;
+    /**Number of scheduled timeouts.*/
+    private int size = 0;
+
+    /**
+     * Construct timer.
+     * @param _tickDuration - duration of one tick in milliseconds
+     * @param _wheelSize - number of buckets, rounded up to power of two
+     * @param _now - current time in milliseconds
+     * @throws IllegalArgumentException - if _tickDuration or _wheelSize <= 0
+     */
+    HashedWheelTimer(final long _tickDuration, final int _wheelSize, final long _now) {
+        Preconditions.checkArgument(_tickDuration > 0);
+        Preconditions.checkArgument(_wheelSize > 0 && _wheelSize <= (1 << 30));
+        tickDuration = _tickDuration;
+        int buckets = Integer.highestOneBit(_wheelSize);
+        if (buckets < _wheelSize) {
+            buckets <<= 1;
+        }
+        wheel = new Timeout[buckets];
+        mask = buckets - 1;
+        startTime = _now;
+    }
+
+    /**
+     * Schedule task. Task is executed by {@link #expire(long)} not earlier than deadline, precision is one tick.
+     * @param _task - task
+     * @param _delay - delay in milliseconds
+     * @param _now - current time in milliseconds
+     * @return timeout, that can be cancelled
+     */
+    Timeout schedule(final Runnable _task, final long _delay, final long _now) {
+        Preconditions.checkNotNull(_task);
+        long elapsed = _now + Math.max(_delay, 0) - startTime;
+        long target = Math.max(tick, (elapsed + tickDuration - 1) / tickDuration);
+        Timeout timeout = new Timeout(this, _task, (target - tick) / wheel.length);
+        timeout.link((int) (target & mask));
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Process all ticks passed till current time and execute expired tasks.
+     * @param _now - current time in milliseconds
+     * @return number of executed tasks
+     */
+    int expire(final long _now) {
+        long current = (_now - startTime) / tickDuration;
+        int executed = 0;
+        List<Runnable> expired = new ArrayList<>();
+        while (tick <= current && size > 0) {
+            Timeout timeout = wheel[(int) (tick & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    timeout.unlink();
+                    size--;
+                    expired.add(timeout.task);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+            // tasks may schedule new timeouts, so they are executed out of bucket iteration
+            for (Runnable task : expired) {
+                task.run();
+                executed++;
+            }
+            expired.clear();
+        }
+        if (size == 0 && tick <= current) {
+            tick = current + 1;
+        }
+        return executed;
+    }
+
+    /**
+     * Time till next tick, used as timeout of waiting for I/O events.
+     * @param _now - current time in milliseconds
+     * @return milliseconds till next tick, at least 1, or -1 if there are no scheduled timeouts
+     */
+    long nextTickDelay(final long _now) {
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(1, startTime + tick * tickDuration - _now);
+    }
+
+    /**
+     * Number of scheduled timeouts.
+     * @return number of timeouts
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Scheduled task of timer.
+     */
+    static final class Timeout {
+        /**Owner timer.*/
+        private final HashedWheelTimer timer;
+        /**Task.*/
+        private final Runnable task;
+        /**Number of full wheel rounds till deadline.*/
+        private long rounds;
+        /**Index of bucket or -1 if timeout is not scheduled anymore.*/
+        private int bucket = -1;
+        /**Previous timeout in bucket.*/
+        private Timeout prev;
+        /**Next timeout in bucket.*/
+        private Timeout next;
+
+        private Timeout(final HashedWheelTimer _timer, final Runnable _task, final long _rounds) {
+            timer = _timer;
+            task = _task;
+            rounds = _rounds;
+        }
+
+        /**
+         * Cancel timeout. Cancelling of expired or cancelled timeout is ignored.
+         */
+        void cancel() {
+            if (bucket < 0) {
+                return;
+            }
+            unlink();
+            timer.size--;
+        }
+
+        /**
+         * Is timeout scheduled: not expired and not cancelled.
+         * @return TRUE/FALSE
+         */
+        boolean isScheduled() {
+            return bucket >= 0;
+        }
+
+        private void link(final int _bucket) {
+            bucket = _bucket;
+            next = timer.wheel[_bucket];
+            if (next != null) {
+                next.prev = this;
+            }
+            timer.wheel[_bucket] = this;
+        }
+
+        private void unlink() {
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                timer.wheel[bucket] = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            }
+            prev = null;
+            next = null;
+            bucket = -1;
+        }
+    }
+}
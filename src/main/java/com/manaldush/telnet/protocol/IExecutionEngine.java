@@ -0,0 +1,30 @@
+package com.manaldush.telnet.protocol;
+
+/**
+ * Engine, executing command processors of sessions.
+ */
+interface IExecutionEngine {
+    /**
+     * Execute task, processing commands of one session.
+     * @param _task - task
+     * @throws java.util.concurrent.RejectedExecutionException - if engine was shut down
+     */
+    void execute(Runnable _task);
+
+    /**
+     * Shut down engine. Already running tasks are not interrupted.
+     */
+    void shutdown();
+
+    /**
+     * Number of tasks, waiting for free thread.
+     * @return queue depth
+     */
+    int getQueueDepth();
+
+    /**
+     * Part of busy threads of bounded pool, from 0 to 1. Engines, creating threads on demand, return 0.
+     * @return utilization
+     */
+    double getUtilization();
+}
@@ -1,6 +1,7 @@
 package com.manaldush.telnet.protocol;
 
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.channels.ServerSocketChannel;
 
 /**
@@ -14,4 +15,15 @@ public interface IServerSocketChannelFactory {
      * @throws IOException - any I/O exception
      */
     ServerSocketChannel build() throws IOException;
+
+    /**
+     * Build server socket channel object for endpoint. Factories, supporting other transports than TCP, choose type of
+     * channel by type of endpoint address.
+     * @param _endpoint - endpoint, which channel is bound to
+     * @return ServerSocketChannel object
+     * @throws IOException - any I/O exception
+     */
+    default ServerSocketChannel build(final SocketAddress _endpoint) throws IOException {
+        return build();
+    }
 }
@@ -1,18 +1,14 @@
 package com.manaldush.telnet.protocol;
 
 import com.google.common.base.Preconditions;
-import com.manaldush.telnet.commands.HasNoAccessCommand;
 import com.manaldush.telnet.commands.HelpCommand;
 import com.manaldush.telnet.commands.QuitCommand;
-import com.manaldush.telnet.commands.UnknownCommand;
-import com.manaldush.telnet.exceptions.AuthTelnetException;
 import com.manaldush.telnet.exceptions.ConfigurationException;
-import com.manaldush.telnet.exceptions.GeneralTelnetException;
-import com.manaldush.telnet.security.AuthTelnetClientSession;
 import com.manaldush.telnet.security.Role;
 import com.manaldush.telnet.CommandTemplate;
 import com.manaldush.telnet.IController;
 import com.manaldush.telnet.Command;
+import com.manaldush.telnet.Configuration;
 import com.manaldush.telnet.ICommandParser;
 import com.manaldush.telnet.IClientSession;
 import com.manaldush.telnet.ICommandProcessor;
@@ -20,26 +16,31 @@ import com.manaldush.telnet.ICommandProcessorFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketOption;
 import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.NetworkChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java .util.Iterator;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
-
-import static com.manaldush.telnet.protocol.Constants.CRLF;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Implementation of IController object.
+ * Implementation of IController object. Controller thread accepts connections on all endpoints and hands them over to
+ * worker event loops, each worker loop has its own selector and serves its own sessions. In SO_REUSEPORT mode every
+ * worker loop accepts connections on its own listening sockets.
  * Created by Maxim.Melnikov on 22.06.2017.
  */
 public class ImplController implements IController<ConfigurationWrapper>, Runnable {
@@ -49,22 +50,30 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
     }
     private static final SocketOption<Boolean> SO_REUSEADDR_OPT    = StandardSocketOptions.SO_REUSEADDR;
     private static final SocketOption<Integer> SO_RCVBUF_OPT       = StandardSocketOptions.SO_RCVBUF;
-    private static final SocketOption<Integer> SO_SNDBUF_OPT       = StandardSocketOptions.SO_SNDBUF;
-    private static final SocketOption<Boolean> TCP_NODELAY_OPT     = StandardSocketOptions.TCP_NODELAY;
-    private static final SocketOption<Boolean> SO_KEEPALIVE_OPT    = StandardSocketOptions.SO_KEEPALIVE;
+    private static final SocketOption<Boolean> SO_REUSEPORT_OPT    = StandardSocketOptions.SO_REUSEPORT;
     private static final byte[] LOG_SESSIONS_OVER_LIMIT = "sessions limit is over".getBytes();
-    private static final int DATA_PORTION = 10;
-    private volatile ServerSocketChannel ss;
+    /**Listening sockets of all endpoints.*/
+    private volatile List<ServerSocketChannel> servers = new ArrayList<>();
     private volatile ConfigurationWrapper conf;
-    private final Map<String, CommandTemplate> commandTemplates = new HashMap<>();
-    private final Map<SocketChannel, AuthTelnetClientSession> sessions = new HashMap<>();
+    private final Map<String, CommandTemplate> commandTemplates = new ConcurrentHashMap<>();
     private volatile STATUS status = STATUS.INITIALIZE;
+    /**Selector of accepting connections.*/
     private volatile Selector selector;
-    private int sessionsNumber = 0;
-    private final Semaphore state = new Semaphore(1);
+    /**Worker event loops.*/
+    private volatile EventLoop[] loops = new EventLoop[0];
+    /**Index of worker loop, from which next choice of loop starts.*/
+    private int nextLoop = 0;
+    /**Number of accepted and not released sessions.*/
+    private final AtomicInteger sessionsNumber = new AtomicInteger();
+    /**Monitor, signalled when last session is released after controller stop.*/
+    private final Object drained = new Object();
     private Thread executor = null;
-    private static final Command UNKNOWN_COMMAND = createUnknownCommand();
-    private static final Command HAS_NO_ACCESS_COMMAND = createHasNoAccessCommand();
+    /**Limiter of accept rate, null if rate is not limited.*/
+    private AcceptRateLimiter limiter = null;
+    /**Engine, executing commands of sessions.*/
+    private volatile IExecutionEngine engine;
+    /**Engine, checking credentials of sessions.*/
+    private volatile IExecutionEngine authEngine;
 
     /**
      * Implementation of controller.
@@ -72,18 +81,102 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
     public ImplController() {
     }
 
-    private void innerConfigure(final ConfigurationWrapper _conf) throws IOException {
+    private void innerConfigure(final ConfigurationWrapper _conf) throws IOException, ConfigurationException {
         Preconditions.checkNotNull(_conf);
         ConfigurationWrapper c = (ConfigurationWrapper) _conf.clone();
-        ServerSocketChannel s = c.getSsChannelFactory().build();
-        s.setOption(SO_REUSEADDR_OPT, c.getConf().getSoReuseAaddr());
-        s.setOption(SO_RCVBUF_OPT, c.getConf().getSoRcvBuf());
-        s.bind(new InetSocketAddress(c.getConf().getAddress(), c.getConf().getPort()));
-        s.configureBlocking(false);
+        IExecutionEngine e = createEngine(c.getConf());
         selector = Selector.open();
-        s.register(selector, SelectionKey.OP_ACCEPT);
+        EventLoop[] l = new EventLoop[c.getConf().getWorkers()];
+        for (int i = 0; i < l.length; i++) {
+            l[i] = new EventLoop(this, Selector.open(),
+                    new ReadBufferPool(c.getConf().getReadBufferSize(), c.getConf().getDirectReadBuffer()));
+        }
+        List<ServerSocketChannel> s = new ArrayList<>();
+        try {
+            for (SocketAddress endpoint : c.getConf().getEndpoints()) {
+                if (c.getConf().getReusePort() && endpoint instanceof InetSocketAddress) {
+                    // every worker loop accepts connections on its own socket, kernel balances them
+                    for (EventLoop loop : l) {
+                        ServerSocketChannel server = openServer(c, endpoint, s);
+                        loop.listen(server);
+                    }
+                } else {
+                    ServerSocketChannel server = openServer(c, endpoint, s);
+                    server.register(selector, SelectionKey.OP_ACCEPT);
+                }
+            }
+        } catch (IOException | ConfigurationException ex) {
+            closeServers(s);
+            throw ex;
+        }
+        loops = l;
+        if (c.getConf().getAcceptRate() > 0) {
+            limiter = new AcceptRateLimiter(c.getConf().getAcceptRate(), c.getConf().getAcceptBurst(), System.nanoTime());
+        }
         conf = c;
-        ss = s;
+        servers = s;
+        engine = e;
+        authEngine = ExecutorExecutionEngine.pool(c.getConf().getAuthThreads(), "telnet-auth-%d");
+    }
+
+    private static ServerSocketChannel openServer(final ConfigurationWrapper _conf, final SocketAddress _endpoint,
+                                                  final List<ServerSocketChannel> _servers)
+            throws IOException, ConfigurationException {
+        ServerSocketChannel s = _conf.getSsChannelFactory().build(_endpoint);
+        _servers.add(s);
+        // options are skipped, if transport doesn't support them
+        setOption(s, SO_REUSEADDR_OPT, _conf.getConf().getSoReuseAaddr());
+        setOption(s, SO_RCVBUF_OPT, _conf.getConf().getSoRcvBuf());
+        if (_conf.getConf().getReusePort() && _endpoint instanceof InetSocketAddress) {
+            if (!s.supportedOptions().contains(SO_REUSEPORT_OPT)) {
+                throw new ConfigurationException("SO_REUSEPORT is not supported by platform");
+            }
+            s.setOption(SO_REUSEPORT_OPT, true);
+        }
+        s.bind(_endpoint, _conf.getConf().getBacklog());
+        s.configureBlocking(false);
+        return s;
+    }
+
+    /**
+     * Set socket option, if channel supports it.
+     * @param _channel - channel
+     * @param _option - option
+     * @param _value - value
+     * @param <T> - type of option value
+     * @throws IOException - I/O errors
+     */
+    static <T> void setOption(final NetworkChannel _channel, final SocketOption<T> _option, final T _value)
+            throws IOException {
+        if (_channel.supportedOptions().contains(_option)) {
+            _channel.setOption(_option, _value);
+        }
+    }
+
+    private static void closeServers(final List<ServerSocketChannel> _servers) {
+        for (ServerSocketChannel server : _servers) {
+            try {
+                SocketAddress address = server.getLocalAddress();
+                server.close();
+                if (address instanceof UnixDomainSocketAddress) {
+                    // socket file of Unix domain socket is not deleted by close
+                    Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static IExecutionEngine createEngine(final Configuration _conf) throws ConfigurationException {
+        switch (_conf.getExecutionMode()) {
+            case VIRTUAL_THREAD:
+                return ExecutorExecutionEngine.virtualThreads();
+            case POOLED:
+                return ExecutorExecutionEngine.pool(_conf.getPoolSize());
+            default:
+                return new ThreadExecutionEngine();
+        }
     }
 
     /**
@@ -132,8 +225,11 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
             throw new IllegalStateException("System has been already stopped");
         }
         registerDefaultCommands();
-        executor = new Thread(this);
+        executor = new Thread(this, "telnet-acceptor");
         status = STATUS.STARTED;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].start("telnet-worker-" + i);
+        }
         executor.start();
     }
 
@@ -196,33 +292,61 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
         }
     }
 
+    /**
+     * Number of write syscalls, saved by coalescing of session output into gathering writes.
+     * @return saved writes
+     */
+    public long getSavedWrites() {
+        long saved = 0;
+        for (EventLoop loop : loops) {
+            saved += loop.getSavedWrites();
+        }
+        return saved;
+    }
+
+    /**
+     * Number of session tasks, waiting for free thread of command pool.
+     * @return queue depth
+     */
+    public int getExecutionQueueDepth() {
+        return engine.getQueueDepth();
+    }
+
+    /**
+     * Part of busy threads of command pool, from 0 to 1. Execution modes without bounded pool report 0.
+     * @return utilization
+     */
+    public double getExecutionUtilization() {
+        return engine.getUtilization();
+    }
+
     @Override
     public final void run() {
         try {
             while (status == STATUS.STARTED) {
                 processKeys();
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             status = STATUS.STOPPED;
         } finally {
-            // close all sessions and wait closing all sessions
-            synchronized (this) {
-                for (Map.Entry<SocketChannel, AuthTelnetClientSession> pair : sessions.entrySet()) {
-                    AuthTelnetClientSession session = pair.getValue();
-                    session.getSession().close();
-                }
+            // stop worker loops, they close all their sessions, and wait closing all sessions
+            for (EventLoop loop : loops) {
+                loop.join();
             }
             try {
-                state.acquire();
+                awaitSessions();
             } catch (InterruptedException e) {
                 e.printStackTrace();
                 status = STATUS.STOPPED;
             }
+            closeServers(servers);
+            engine.shutdown();
+            authEngine.shutdown();
         }
     }
 
-    private void processKeys() throws IOException, InterruptedException {
+    private void processKeys() throws IOException {
         selector.select();
         if (status != STATUS.STARTED) {
             return;
@@ -231,162 +355,156 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
         Iterator<SelectionKey> iterator = selectedKeys.iterator();
         while (iterator.hasNext()) {
             SelectionKey key = iterator.next();
+            iterator.remove();
             if (key.isAcceptable()) {
-                SocketChannel client = ((ServerSocketChannel) key.channel()).accept();
-                if (client == null) {
-                    continue;
-                }
-                SelectionKey clientKey = configureClientSocket(client);
-                IClientSession session = new ImplTelnetClientSession(client, this, DATA_PORTION, clientKey,
-                        conf.getConf().getPrompt());
-                AuthTelnetClientSession authSession = new AuthTelnetClientSession(session);
-                boolean denySess = true;
-                synchronized (this) {
-                    if (acceptSession()) {
-                        if (sessions.size() == 0) {
-                            state.acquire();
-                        }
-                        sessions.put(client, authSession);
-                        denySess = false;
-                    }
-                }
-                if (denySess) {
-                    session.write(LOG_SESSIONS_OVER_LIMIT);
-                    session.close();
-                } else {
-                    getUserName(session);
-                }
-            } else if (key.isReadable()) {
-                SocketChannel client = (SocketChannel) key.channel();
-                if (client == null) {
-                    continue;
-                }
-                AuthTelnetClientSession authSession;
-                IClientSession session;
-                synchronized (this) {
-                    authSession = sessions.get(client);
-                }
-                // Check Session was reset
-                if (authSession == null) {
-                    continue;
-                }
-                session = authSession.getSession();
-                try {
-                    if (!authSession.hasUserName()) {
-                        List<String> lines = this.readData(client, authSession.getSession());
-                        if (lines != null && !lines.isEmpty()) {
-                            authSession.setUserName(lines.get(0));
-                            session.resetBuffer();
-                            this.getPassword(authSession.getSession());
-                            continue;
-                        }
-                    } else if (!authSession.hasPasswd()) {
-                        List<String> lines = this.readData(client, authSession.getSession());
-                        if (lines != null && !lines.isEmpty()) {
-                            authSession.setPasswd(lines.get(0));
-                            session.resetBuffer();
-                            authSession.checkUser();
-                            if (authSession.isAuthFailed()) {
-                                session.write(Constants.RED);
-                                session.write("Illegal credentials");
-                                session.write(Constants.RESET_COLOR);
-                                session.write(CRLF);
-                                throw new AuthTelnetException("Authentification error");
-                            }
-                            session.write(Constants.GREEN);
-                            session.write(conf.getConf().getGreeting());
-                            session.write(Constants.RESET_COLOR);
-                            session.write(CRLF);
-                            session.prompt();
-                            continue;
-                        }
-                    }
-                    addTasks(this.readData(client, authSession.getSession()), authSession);
-                } catch (GeneralTelnetException | IOException e) {
-                    e.printStackTrace();
-                    //status = STATUS.STOPPED;
-                    authSession.getSession().close();
-                }
+                acceptConnections((ServerSocketChannel) key.channel(), null);
             }
         }
     }
 
-    private SelectionKey configureClientSocket(final SocketChannel _channel) throws IOException {
-        _channel.configureBlocking(false);
-        _channel.setOption(SO_REUSEADDR_OPT, conf.getConf().getSoReuseAaddr());
-        _channel.setOption(SO_RCVBUF_OPT, conf.getConf().getSoRcvBuf());
-        _channel.setOption(SO_SNDBUF_OPT, conf.getConf().getSoSndBuf());
-        _channel.setOption(TCP_NODELAY_OPT, conf.getConf().getTcpNoDelay());
-        _channel.setOption(SO_KEEPALIVE_OPT, true);
-        return _channel.register(selector, SelectionKey.OP_READ);
+    /**
+     * Accept pending connections, but not more than configured accept batch per wakeup. Called by acceptor thread or
+     * by worker loop, owning its listening socket.
+     * @param _server - server socket channel
+     * @param _loop - worker loop for accepted sessions, null to choose the least loaded loop
+     * @throws IOException - I/O errors
+     */
+    void acceptConnections(final ServerSocketChannel _server, final EventLoop _loop) throws IOException {
+        final int batch = conf.getConf().getAcceptBatch();
+        for (int i = 0; i < batch; i++) {
+            SocketChannel client = _server.accept();
+            if (client == null) {
+                return;
+            }
+            if (limiter != null && !limiter.tryAcquire(System.nanoTime())) {
+                // accept rate is over, drop connection before any session object is created
+                client.close();
+            } else if (!acceptSession()) {
+                client.write(ByteBuffer.wrap(LOG_SESSIONS_OVER_LIMIT));
+                client.close();
+            } else if (_loop != null) {
+                _loop.register(client);
+            } else {
+                chooseLoop().register(client);
+            }
+        }
     }
 
-    private boolean acceptSession() {
-        final int maxSessNum = conf.getConf().getMaxSessions();
-        if (maxSessNum == 0 || maxSessNum > sessionsNumber) {
-            sessionsNumber++;
-            return true;
+    /**
+     * Open in-memory loopback connection to started controller. Connection is served as socket connection: it is
+     * assigned to worker loop, passes authentication and executes commands, but its data doesn't pass through kernel.
+     * @return client side of connection
+     * @throws IllegalStateException - if controller is not started
+     * @throws IOException - if sessions limit is over
+     */
+    public synchronized LoopbackConnection connect() throws IOException {
+        if (status != STATUS.STARTED) {
+            throw new IllegalStateException("System has not been started");
+        }
+        if (!acceptSession()) {
+            throw new IOException(new String(LOG_SESSIONS_OVER_LIMIT));
         }
-        return false;
+        EventLoop loop = chooseLoop();
+        LoopbackConnection connection = new LoopbackConnection(loop);
+        // controller can't be stopped until channel is registered, so the loop releases it on stop
+        loop.register(connection.getServer());
+        return connection;
     }
 
-    synchronized void resetSession(final SocketChannel _channel) throws IOException {
-        sessions.remove(_channel);
-        _channel.close();
-        if (sessions.size() == 0) {
-            state.release();
+    /**
+     * Choose worker loop for new session: the least loaded one, ties are broken by round robin.
+     * @return worker loop
+     */
+    private synchronized EventLoop chooseLoop() {
+        EventLoop result = null;
+        for (int i = 0; i < loops.length; i++) {
+            EventLoop loop = loops[(nextLoop + i) % loops.length];
+            if (result == null || loop.getLoad() < result.getLoad()) {
+                result = loop;
+            }
         }
-        sessionsNumber--;
+        nextLoop = (nextLoop + 1) % loops.length;
+        return result;
     }
 
-    private List<String> readData(final SocketChannel _channel, final IClientSession _session)
-            throws IOException, GeneralTelnetException {
-        ByteBuffer buffer = ByteBuffer.allocate(DATA_PORTION);
-        List<String> lines = new ArrayList<>();
+    private boolean acceptSession() {
+        final int maxSessNum = conf.getConf().getMaxSessions();
         for (;;) {
-            int numberBytes = _channel.read(buffer);
-            if (numberBytes == DATA_PORTION) {
-                lines.addAll(_session.decode(buffer, DATA_PORTION));
-                continue;
-            } else if (numberBytes < DATA_PORTION && numberBytes > 0) {
-                lines.addAll(_session.decode(buffer, numberBytes));
-            } else if (numberBytes < 0) {
-                // connection was closed
-                _session.close();
-                return null;
+            int number = sessionsNumber.get();
+            if (maxSessNum != 0 && number >= maxSessNum) {
+                return false;
+            }
+            if (sessionsNumber.compareAndSet(number, number + 1)) {
+                return true;
             }
-            break;
         }
-        return lines;
     }
 
-    private void addTasks(final List<String> _lines, final AuthTelnetClientSession _session) throws IOException {
-        if (_lines == null || _lines.size() == 0) {
-            return;
-        }
-        Iterator<String> iterator = _lines.iterator();
-        while (iterator.hasNext()) {
-            String line = iterator.next();
-            if (line == null || line.isEmpty()) {
-                _session.getSession().prompt();
-                continue;
-            }
-            Command cmd = null;
-            try {
-                cmd = this.search(line);
-            } catch (ParseException e) {
-                e.printStackTrace();
-                cmd = null;
+    /**
+     * Release session slot, called by worker loop when session was reset.
+     */
+    void releaseSession() {
+        if (sessionsNumber.decrementAndGet() == 0 && status != STATUS.STARTED) {
+            synchronized (drained) {
+                drained.notifyAll();
             }
-            if (cmd == null) {
-                cmd = UNKNOWN_COMMAND;
-            } else if (!_session.checkRoles(cmd.getTemplate())) {
-                cmd = HAS_NO_ACCESS_COMMAND;
+        }
+    }
+
+    /**
+     * Wait until all sessions are released, called after controller stop.
+     * @throws InterruptedException - if thread was interrupted
+     */
+    private void awaitSessions() throws InterruptedException {
+        synchronized (drained) {
+            while (sessionsNumber.get() > 0) {
+                drained.wait();
             }
-            _session.getSession().addTask(cmd);
         }
     }
 
+    /**
+     * Is controller started.
+     * @return TRUE/FALSE
+     */
+    boolean isStarted() {
+        return status == STATUS.STARTED;
+    }
+
+    /**
+     * Stop controller without waiting, used by worker loop in case of fatal error.
+     */
+    void abort() {
+        status = STATUS.STOPPED;
+        selector.wakeup();
+    }
+
+    /**
+     * Execute task, processing commands of session, by execution engine of controller.
+     * @param _task - task
+     * @throws java.util.concurrent.RejectedExecutionException - if controller was stopped
+     */
+    void execute(final Runnable _task) {
+        engine.execute(_task);
+    }
+
+    /**
+     * Execute task, checking credentials of session, by authentication engine of controller.
+     * @param _task - task
+     * @throws java.util.concurrent.RejectedExecutionException - if controller was stopped
+     */
+    void authenticate(final Runnable _task) {
+        authEngine.execute(_task);
+    }
+
+    /**
+     * Get configuration of controller.
+     * @return configuration
+     */
+    ConfigurationWrapper getConf() {
+        return conf;
+    }
+
     private void registerDefaultCommands() {
         registerQuitCommand();
         registerHelpCommand();
@@ -399,6 +517,7 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
                 return QuitCommand.build(_session);
             }
         });
+        quit.setInline(true);
         this.register(quit);
         quit.addRole(Role.SYSTEM_ROLE);
     }
@@ -411,37 +530,8 @@ public class ImplController implements IController<ConfigurationWrapper>, Runnab
                 return HelpCommand.build(_session, new HashMap<>(commandTemplates));
             }
         });
+        help.setInline(true);
         this.register(help);
         help.addRole(Role.SYSTEM_ROLE);
     }
-
-    private static Command createUnknownCommand() {
-        CommandTemplate unknownCommand = CommandTemplate.build("unknown command", "unknown command",
-                new ICommandProcessorFactory() {
-            @Override
-            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
-                return UnknownCommand.build(_session);
-            }
-        });
-        return Command.build(unknownCommand);
-    }
-
-    private static Command createHasNoAccessCommand() {
-        final CommandTemplate hasNoAccessCommand = CommandTemplate.build("has no access",
-                "has no access", new ICommandProcessorFactory() {
-            @Override
-            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
-                return HasNoAccessCommand.build(_session);
-            };
-        });
-        return Command.build(hasNoAccessCommand);
-    }
-
-    private void getUserName(final IClientSession _session) throws IOException {
-        _session.write("username:");
-    }
-
-    private void getPassword(final IClientSession _session) throws IOException {
-        _session.write("password:");
-    }
 }
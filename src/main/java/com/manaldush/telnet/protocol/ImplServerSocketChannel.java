@@ -1,10 +1,14 @@
 package com.manaldush.telnet.protocol;
 
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.channels.ServerSocketChannel;
 
 /**
- * Implementation of IServerSocketChannelFactory interface. Return default Server socket channel.
+ * Implementation of IServerSocketChannelFactory interface. Return default Server socket channel: TCP or
+ * Unix domain socket one.
  * Created by Maxim.Melnikov on 29.06.2017.
  */
 final class ImplServerSocketChannel implements IServerSocketChannelFactory {
@@ -17,4 +21,19 @@ final class ImplServerSocketChannel implements IServerSocketChannelFactory {
     public ServerSocketChannel build() throws IOException {
         return ServerSocketChannel.open();
     }
+
+    /**
+     * Build system server socket channel for endpoint: Unix domain socket channel for Unix domain socket address,
+     * TCP channel otherwise.
+     * @param _endpoint - endpoint, which channel is bound to
+     * @return - server socket channel object
+     * @throws IOException - I/O errors
+     */
+    @Override
+    public ServerSocketChannel build(final SocketAddress _endpoint) throws IOException {
+        if (_endpoint instanceof UnixDomainSocketAddress) {
+            return ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        return build();
+    }
 }
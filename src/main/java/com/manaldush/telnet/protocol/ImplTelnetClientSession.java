@@ -3,7 +3,9 @@ package com.manaldush.telnet.protocol;
 import com.manaldush.telnet.Command;
 import com.manaldush.telnet.ICommandProcessor;
 import com.manaldush.telnet.IClientSession;
+import com.manaldush.telnet.QueueOverflowPolicy;
 import com.manaldush.telnet.exceptions.AbortOutputProcessException;
+import com.manaldush.telnet.exceptions.DecodingException;
 import com.manaldush.telnet.exceptions.GeneralTelnetException;
 import com.manaldush.telnet.exceptions.InterruptProcessException;
 import com.manaldush.telnet.exceptions.OperationException;
@@ -12,13 +14,19 @@ import com.manaldush.telnet.options.NotSupportedOption;
 import com.manaldush.telnet.options.Option;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.manaldush.telnet.protocol.Constants.BYTE_FF;
 import static com.manaldush.telnet.protocol.Constants.CRLF;
@@ -31,24 +39,42 @@ import static com.manaldush.telnet.protocol.Constants.CRLF;
 final class ImplTelnetClientSession implements IClientSession {
     /**Default charset of transport data.*/
     private static final Charset DEFAULT_CHARSET = Charset.forName("ASCII");
+    /**Size of collected batch output, after which it is written before batch is closed.*/
+    private static final int MAX_BATCH_SIZE = 8192;
     /**Buffer of read data.*/
     private ByteBuffer buffer = null;
-    /**List of tasks that processed incoming commands.*/
-    private final List<ICommandProcessor> tasks = new ArrayList<>();
-    /**Socket object.*/
-    private final SocketChannel channel;
-    /**Telnet controller.*/
-    private final ImplController controller;
-    /**Init buffer size. When size of read data is more than initBufferSize, re-allocate buffer
-     * size = buffer size + initBufferSize.*/
+    /**Busy message, sent instead of execution of rejected command.*/
+    private static final String LOG_QUEUE_IS_FULL = "Session is busy, command is rejected";
+    /**Queue of tasks that processed incoming commands. Guarded by session.*/
+    private final Deque<ICommandProcessor> tasks = new ArrayDeque<>();
+    /**Max number of queued tasks, 0 is not limited.*/
+    private final int queueCapacity;
+    /**Policy of full task queue.*/
+    private final QueueOverflowPolicy overflowPolicy;
+    /**Reading from client is paused, because task queue is full. Guarded by session.*/
+    private boolean readPaused = false;
+    /**Socket object or loopback channel.*/
+    private final ByteChannel channel;
+    /**Worker event loop, serving this session.*/
+    private final EventLoop loop;
+    /**Init buffer size. When size of read data is more than buffer size, buffer is re-allocated with doubled size.*/
     private final int initBufferSize;
-    /**Used for catch event of incoming data in socket.*/
+    /**Max capacity of read buffer, that is kept for the next line after line is taken.*/
+    private static final int RETAINED_BUFFER_SIZE = 1024;
+    /**Max length of line in bytes, 0 is not limited.*/
+    private final int maxLineLength;
+    /**Current line exceeded max length, its bytes are dropped.*/
+    private boolean lineOverflow = false;
+    /**Some line exceeded max length during current decoding, it is kept when line is taken and is checked by
+     * decode.*/
+    private boolean overflowed = false;
+    /**Used for catch event of incoming data in socket, null for channels, which are not selectable.*/
     private final SelectionKey key;
     /**Current processing command.*/
     private ICommandProcessor currentTask = null;
-    /**Current thread, processing commands.*/
-    private Thread currentThread;
-    /**Execute tasks in thread currentThread.*/
+    /**Task, processing commands, was given to execution engine and didn't finish yet.*/
+    private boolean running = false;
+    /**Executor of tasks.*/
     private TaskExecutor executor;
     /**Should stop.*/
     private boolean stop = false;
@@ -58,24 +84,75 @@ final class ImplTelnetClientSession implements IClientSession {
     private final String prompt;
     /**Available telnet protocol options.*/
     private final Map<Integer, Option> options;
+    /**Outbound buffers, that were not accepted by socket yet. Guarded by itself.*/
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+    /**Flush of outbound queue was requested from event loop. Guarded by outbound.*/
+    private boolean flushRequested = false;
+    /**Depth of opened write batches. Guarded by outbound.*/
+    private int batchDepth = 0;
+    /**Number of bytes, collected in current batch. Guarded by outbound.*/
+    private int batchSize = 0;
+    /**Time of last input from client in milliseconds. Used by event loop thread only.*/
+    private long lastActivity = 0;
+    /**Prompt with color sequences, encoded once.*/
+    private final byte[] promptBytes;
 
     /**
      * Construct implementation of telnet client session.
      *
-     * @param _channel - socket channel
-     * @param _controller - controller
+     * @param _channel - socket channel or loopback channel
+     * @param _loop - worker event loop
      * @param _initBufferSize - init buffer size
-     * @param _key - selection key
+     * @param _key - selection key or null if channel is not selectable
      * @param _prompt - prompt chars
      */
-    ImplTelnetClientSession(final SocketChannel _channel, final ImplController _controller, final int _initBufferSize,
+    ImplTelnetClientSession(final ByteChannel _channel, final EventLoop _loop, final int _initBufferSize,
                             final SelectionKey _key, final String _prompt) {
+        this(_channel, _loop, _initBufferSize, _key, _prompt, 0, QueueOverflowPolicy.BACKPRESSURE);
+    }
+
+    /**
+     * Construct implementation of telnet client session with bounded task queue.
+     *
+     * @param _channel - socket channel or loopback channel
+     * @param _loop - worker event loop
+     * @param _initBufferSize - init buffer size
+     * @param _key - selection key or null if channel is not selectable
+     * @param _prompt - prompt chars
+     * @param _queueCapacity - max number of queued tasks, 0 is not limited
+     * @param _overflowPolicy - policy of full task queue
+     */
+    ImplTelnetClientSession(final ByteChannel _channel, final EventLoop _loop, final int _initBufferSize,
+                            final SelectionKey _key, final String _prompt, final int _queueCapacity,
+                            final QueueOverflowPolicy _overflowPolicy) {
+        this(_channel, _loop, _initBufferSize, _key, _prompt, _queueCapacity, _overflowPolicy, 0);
+    }
+
+    /**
+     * Construct implementation of telnet client session with bounded task queue and line length.
+     *
+     * @param _channel - socket channel or loopback channel
+     * @param _loop - worker event loop
+     * @param _initBufferSize - init buffer size
+     * @param _key - selection key or null if channel is not selectable
+     * @param _prompt - prompt chars
+     * @param _queueCapacity - max number of queued tasks, 0 is not limited
+     * @param _overflowPolicy - policy of full task queue
+     * @param _maxLineLength - max length of line in bytes, 0 is not limited
+     */
+    ImplTelnetClientSession(final ByteChannel _channel, final EventLoop _loop, final int _initBufferSize,
+                            final SelectionKey _key, final String _prompt, final int _queueCapacity,
+                            final QueueOverflowPolicy _overflowPolicy, final int _maxLineLength) {
+        maxLineLength = _maxLineLength;
+        queueCapacity = _queueCapacity;
+        overflowPolicy = _overflowPolicy;
         channel = _channel;
-        controller = _controller;
+        loop = _loop;
         initBufferSize = _initBufferSize;
         decoder = new Decoder(this);
         key = _key;
         prompt = _prompt;
+        promptBytes = str2Bytes(Constants.GREEN + prompt + Constants.RESET_COLOR);
         options = new HashMap<>();
         initOptions();
     }
@@ -87,18 +164,52 @@ final class ImplTelnetClientSession implements IClientSession {
      */
     @Override
     public void addBuffer(final byte _b) {
-        if (buffer == null) {
-            buffer = ByteBuffer.allocate(initBufferSize);
-        }
-        if (buffer.remaining() > 0) {
+        if (ensureBuffer(1)) {
             buffer.put(_b);
-        } else {
+        }
+    }
+
+    /**
+     * Add range of bytes to current read buffer of session by one bulk copy.
+     *
+     * @param _src - source buffer, its position and limit are not changed
+     * @param _offset - index of first byte in source buffer
+     * @param _len - number of bytes
+     */
+    @Override
+    public void addBuffer(final ByteBuffer _src, final int _offset, final int _len) {
+        if (ensureBuffer(_len)) {
+            buffer.put(buffer.position(), _src, _offset, _len);
+            buffer.position(buffer.position() + _len);
+        }
+    }
+
+    /**
+     * Allocate read buffer or re-allocate it, so it has place for _len bytes. Buffer grows geometrically, so long
+     * line is copied O(log n) times.
+     * @param _len - number of bytes to add
+     * @return FALSE if line exceeds max line length, bytes must be dropped
+     */
+    private boolean ensureBuffer(final int _len) {
+        int length = buffer == null ? 0 : buffer.position();
+        if (lineOverflow || (maxLineLength > 0 && length + _len > maxLineLength)) {
+            lineOverflow = true;
+            overflowed = true;
+            return false;
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(Math.max(initBufferSize, _len));
+        } else if (buffer.remaining() < _len) {
+            long capacity = Math.max(2L * buffer.capacity(), (long) length + _len);
+            if (maxLineLength > 0) {
+                capacity = Math.min(capacity, maxLineLength);
+            }
             buffer.flip();
-            ByteBuffer nbuffer = ByteBuffer.allocate(buffer.capacity() + initBufferSize);
+            ByteBuffer nbuffer = ByteBuffer.allocate((int) Math.min(capacity, Integer.MAX_VALUE - 8));
             nbuffer.put(buffer);
-            nbuffer.put(_b);
             buffer = nbuffer;
         }
+        return true;
     }
 
     /**
@@ -117,6 +228,27 @@ final class ImplTelnetClientSession implements IClientSession {
         return nbuffer;
     }
 
+    /**
+     * Take line, collected in read buffer. Line is decoded straight from buffer without intermediate copies, small
+     * buffer is kept for the next line.
+     * @param _charset - charset of line
+     * @return line, empty if buffer is empty
+     */
+    @Override
+    public String takeLine(final Charset _charset) {
+        lineOverflow = false;
+        if (buffer == null) {
+            return "";
+        }
+        String line = buffer.position() == 0 ? "" : new String(buffer.array(), 0, buffer.position(), _charset);
+        if (buffer.capacity() > RETAINED_BUFFER_SIZE) {
+            buffer = null;
+        } else {
+            buffer.clear();
+        }
+        return line;
+    }
+
     /**
      * Decode byte buffer, that was read from connection.
      * @param _buffer - byte buffer
@@ -133,7 +265,13 @@ final class ImplTelnetClientSession implements IClientSession {
                 return null;
             }
         }
-        return decoder.decode(_buffer, _bytesNum);
+        List<String> lines = decoder.decode(_buffer, _bytesNum);
+        if (overflowed) {
+            overflowed = false;
+            throw new DecodingException(String.format("Line length is more then max line length [%d]",
+                    maxLineLength));
+        }
+        return lines;
     }
 
     /**
@@ -142,6 +280,7 @@ final class ImplTelnetClientSession implements IClientSession {
     @Override
     public void resetBuffer() {
         buffer = null;
+        lineOverflow = false;
     }
 
     /**
@@ -155,34 +294,174 @@ final class ImplTelnetClientSession implements IClientSession {
         if (buffer.position() == 0) {
             return;
         }
-        buffer.put(buffer.position(), (byte) 0);
         buffer.position(buffer.position() - 1);
+        buffer.put(buffer.position(), (byte) 0);
     }
 
     /**
-     * Create task from command and add it in queue for processing.
+     * Create task from command and add it in queue for processing. Full queue is handled by overflow policy of session.
+     * Inline command is executed at once by calling thread, if session has no other commands to execute.
      * @param _cmd - command
      */
     @Override
     public void addTask(final Command _cmd) {
-        ICommandProcessor task =
-                _cmd.getTemplate().getCommandProcessorFactory().build(_cmd, this);
-        boolean thrStart = false;
+        addTasks(Collections.singletonList(_cmd));
+    }
+
+    /**
+     * Create tasks from commands and add them in queue for processing at once. Leading inline commands are executed
+     * by calling thread, if session has no other commands to execute, the rest are queued under one lock and wake up
+     * execution engine once.
+     * @param _cmds - commands in arrival order
+     */
+    void addTasks(final List<Command> _cmds) {
+        List<ICommandProcessor> batch = new ArrayList<>(_cmds.size());
+        for (Command cmd : _cmds) {
+            batch.add(cmd.getTemplate().getCommandProcessorFactory().build(cmd, this));
+        }
+        int first = 0;
+        while (first < _cmds.size() && _cmds.get(first).getTemplate().isInline()) {
+            synchronized (this) {
+                if (stop) {
+                    return;
+                }
+                if (running || !tasks.isEmpty()) {
+                    // queue is not empty, so commands are not reordered
+                    break;
+                }
+                running = true;
+            }
+            processInline(batch.get(first));
+            first++;
+        }
+        if (first == _cmds.size()) {
+            return;
+        }
         synchronized (this) {
             if (stop) {
                 return;
             }
-            tasks.add(task);
-            if (currentThread == null) {
-                currentThread = new Thread(new TaskExecutor());
-                thrStart = true;
+            for (ICommandProcessor task : batch.subList(first, batch.size())) {
+                enqueue(task);
+            }
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        startExecutor();
+    }
+
+    /**
+     * Add task in queue according to overflow policy. Must be called with session lock held.
+     * @param _task - task
+     */
+    private void enqueue(final ICommandProcessor _task) {
+        if (queueCapacity > 0 && tasks.size() >= queueCapacity) {
+            if (overflowPolicy == QueueOverflowPolicy.REJECT) {
+                reject();
+                return;
+            } else if (overflowPolicy == QueueOverflowPolicy.DROP_OLDEST) {
+                tasks.pollFirst();
+            }
+        }
+        tasks.addLast(_task);
+        if (overflowPolicy == QueueOverflowPolicy.BACKPRESSURE && queueCapacity > 0
+                && tasks.size() >= queueCapacity) {
+            readPaused = true;
+        }
+    }
+
+    /**
+     * Execute inline task by calling thread. Tasks, queued during execution, are handed over to execution engine.
+     * @param _task - task
+     */
+    private void processInline(final ICommandProcessor _task) {
+        beginBatch();
+        try {
+            _task.process();
+            if (!stop) {
+                write(CRLF);
+                prompt();
+            }
+        } catch (OperationException ex) {
+            ex.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        } catch (RuntimeException e) {
+            // failure of command must not break I/O thread, only this session is closed
+            e.printStackTrace();
+            close();
+        } finally {
+            endBatch();
+        }
+        synchronized (this) {
+            if (stop || tasks.isEmpty()) {
+                running = false;
+                return;
+            }
+        }
+        startExecutor();
+    }
+
+    private void startExecutor() {
+        try {
+            loop.execute(new TaskExecutor());
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                running = false;
             }
+            close();
         }
-        if (thrStart) {
-            currentThread.start();
+    }
+
+    private void reject() {
+        try {
+            write(Constants.RED);
+            write(LOG_QUEUE_IS_FULL);
+            write(Constants.RESET_COLOR);
+            write(CRLF);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    /**
+     * Check that reading from client is paused, because task queue is full.
+     * @return TRUE if reading is paused
+     */
+    synchronized boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * Remove interest in read readiness of socket, while reading is paused. Called by event loop thread.
+     */
+    void disableRead() {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Restore interest in read readiness of socket, when reading is resumed. Called by event loop thread.
+     */
+    void enableRead() {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Get channel of session.
+     * @return channel
+     */
+    ByteChannel getChannel() {
+        return channel;
+    }
+
     /**
      * Abort output of current executed task.
      * @throws AbortOutputProcessException - if some error occurred during processing output abort
@@ -241,15 +520,184 @@ final class ImplTelnetClientSession implements IClientSession {
         innerWrite(buf);
     }
 
+    /**
+     * Write buffer in connection. Buffer is written immediately if nothing is queued and no batch is open, otherwise
+     * it is queued. The rest that socket didn't accept is flushed by event loop, when socket becomes writable.
+     * Caller is never blocked by slow peer.
+     * @param _buffer - buffer
+     * @throws IOException - if IO problem occurred or session was closed
+     */
     private void innerWrite(final ByteBuffer _buffer) throws IOException {
         try {
-            channel.write(_buffer);
+            synchronized (outbound) {
+                if (stop) {
+                    throw new ClosedChannelException();
+                }
+                if (batchDepth > 0) {
+                    outbound.addLast(_buffer);
+                    batchSize += _buffer.remaining();
+                    if (batchSize >= MAX_BATCH_SIZE && !flushRequested && !writeQueued()) {
+                        // don't keep large output in memory until end of batch
+                        requestFlush();
+                    }
+                    return;
+                }
+                if (outbound.isEmpty()) {
+                    channel.write(_buffer);
+                    if (!_buffer.hasRemaining()) {
+                        return;
+                    }
+                }
+                outbound.addLast(_buffer);
+                requestFlush();
+            }
         } catch (IOException ex) {
+            abortOutput();
             close();
             throw ex;
         }
     }
 
+    /**
+     * Open batch of writes. Writes are collected until the outermost batch is closed and then are written with
+     * one gathering write.
+     */
+    void beginBatch() {
+        synchronized (outbound) {
+            batchDepth++;
+        }
+    }
+
+    /**
+     * Close batch of writes, opened by {@link #beginBatch()}. Closing the outermost batch writes collected output.
+     */
+    void endBatch() {
+        boolean failed = false;
+        synchronized (outbound) {
+            batchDepth--;
+            if (batchDepth > 0 || flushRequested || outbound.isEmpty()) {
+                return;
+            }
+            try {
+                if (!writeQueued()) {
+                    requestFlush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                outbound.clear();
+                failed = true;
+            }
+        }
+        if (failed) {
+            close();
+        } else {
+            release();
+        }
+    }
+
+    /**
+     * Write queued output with one gathering write. Must be called with outbound lock held.
+     * @return true if queue was drained, false if socket didn't accept everything
+     * @throws IOException - if IO problem occurred
+     */
+    private boolean writeQueued() throws IOException {
+        batchSize = 0;
+        if (outbound.size() == 1) {
+            channel.write(outbound.peekFirst());
+        } else if (channel instanceof GatheringByteChannel) {
+            ((GatheringByteChannel) channel).write(outbound.toArray(new ByteBuffer[outbound.size()]));
+            loop.addSavedWrites(outbound.size() - 1);
+        } else {
+            for (ByteBuffer buf : outbound) {
+                if (channel.write(buf) == 0 && buf.hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+            outbound.pollFirst();
+        }
+        return outbound.isEmpty();
+    }
+
+    private void requestFlush() {
+        if (!flushRequested) {
+            flushRequested = true;
+            loop.requestFlush(this);
+        }
+    }
+
+    /**
+     * Remember time of input from client. Called by event loop thread.
+     * @param _now - current time in milliseconds
+     */
+    void touch(final long _now) {
+        lastActivity = _now;
+    }
+
+    /**
+     * Time of last input from client. Called by event loop thread.
+     * @return time in milliseconds
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Register interest in write readiness of socket, if session has queued output. Called by event loop thread.
+     */
+    void enableFlush() {
+        synchronized (outbound) {
+            if (!outbound.isEmpty() && key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Write queued output. When queue is drained, interest in write readiness is removed and session, that was
+     * closed with pending output, is released. Called by event loop thread, when socket becomes writable.
+     */
+    void flush() {
+        boolean failed = false;
+        synchronized (outbound) {
+            try {
+                if (!outbound.isEmpty() && !writeQueued()) {
+                    // socket is full, wait for next write readiness
+                    return;
+                }
+                flushRequested = false;
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                outbound.clear();
+                flushRequested = false;
+                failed = true;
+            }
+        }
+        if (failed) {
+            close();
+        } else {
+            release();
+        }
+    }
+
+    private boolean hasPendingOutput() {
+        synchronized (outbound) {
+            return !outbound.isEmpty();
+        }
+    }
+
+    private void abortOutput() {
+        synchronized (outbound) {
+            outbound.clear();
+            flushRequested = false;
+            batchSize = 0;
+        }
+    }
+
     private byte[] str2Bytes(final String _msg) {
         return _msg.getBytes(DEFAULT_CHARSET);
     }
@@ -281,34 +729,55 @@ final class ImplTelnetClientSession implements IClientSession {
      * @param _charset
      */
     @Override
-    public void subNegotiation(final byte _val, final List<Byte> _b, final Charset _charset) {
+    public void subNegotiation(final byte _val, final ByteBuffer _b, final Charset _charset) {
         options.get(_val & BYTE_FF).setSubnegotiation(_b, this, _charset);
     }
 
     @Override
     public void prompt() throws IOException {
-        write(Constants.GREEN);
-        write(str2Bytes(prompt));
-        write(Constants.RESET_COLOR);
+        innerWrite(ByteBuffer.wrap(promptBytes));
     }
 
     private void innerClose() {
         if (stop) {
             return;
         }
-        key.cancel();
+        synchronized (outbound) {
+            this.stop = true;
+        }
         if (executor == null) {
-            this.resetSession();
+            release();
+        }
+        if (executor != null || hasPendingOutput()) {
+            // client, that doesn't read, or command, that doesn't finish, can't keep session for ever
+            loop.lingerClose(this);
         }
-        this.stop = true;
     }
 
-    private void resetSession() {
-        try {
-            controller.resetSession(channel);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Release closed session, that didn't deliver its output or finish its command in time. Queued output is
+     * dropped. Called by event loop.
+     */
+    void abortClose() {
+        abortOutput();
+        release();
+    }
+
+    /**
+     * Release closed session, queued output is flushed by event loop before.
+     */
+    private synchronized void release() {
+        if (!stop || hasPendingOutput()) {
+            return;
         }
+        if (key != null) {
+            key.cancel();
+        }
+        this.resetSession();
+    }
+
+    private void resetSession() {
+        loop.resetSession(channel);
     }
 
     /**
@@ -318,27 +787,41 @@ final class ImplTelnetClientSession implements IClientSession {
 
         @Override
         public void run() {
+            // output of command is written as it is produced, command may block or stream for a long time; only
+            // CRLF and prompt after the last command are written with one gathering write
             for (;;) {
+                boolean resume = false;
                 synchronized (ImplTelnetClientSession.this) {
                     currentTask = null;
                     if (ImplTelnetClientSession.this.stop) {
                         executor = null;
-                        ImplTelnetClientSession.this.resetSession();
-                        currentThread = null;
+                        ImplTelnetClientSession.this.release();
+                        running = false;
                         return;
-                    } else if (tasks.size() == 0) {
+                    } else if (tasks.isEmpty()) {
                         executor = null;
-                        currentThread = null;
+                        running = false;
+                        beginBatch();
                         try {
                             ImplTelnetClientSession.this.write(CRLF);
                             prompt();
                         } catch (IOException e) {
                             e.printStackTrace();
                             innerClose();
+                        } finally {
+                            endBatch();
                         }
                         return;
                     }
-                    currentTask = tasks.remove(0);
+                    currentTask = tasks.pollFirst();
+                    if (readPaused && tasks.size() <= queueCapacity / 2) {
+                        // resume at half of capacity, so reading is not switched on every command
+                        readPaused = false;
+                        resume = true;
+                    }
+                }
+                if (resume) {
+                    loop.resumeRead(ImplTelnetClientSession.this);
                 }
                 try {
                     currentTask.process();
@@ -0,0 +1,84 @@
+package com.manaldush.telnet.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server side of in-memory loopback connection. Channel is not selectable: client notifies event loop about new data
+ * directly, so data passes from client to session without kernel.
+ */
+final class LoopbackChannel implements ByteChannel, GatheringByteChannel {
+    /**Data from client.*/
+    private final LoopbackPipe inbound;
+    /**Data to client.*/
+    private final LoopbackPipe outbound;
+    /**Event loop, serving this channel.*/
+    private final EventLoop loop;
+    /**Event loop was notified about data and didn't read it yet.*/
+    private final AtomicBoolean readable = new AtomicBoolean();
+    /**Channel is open.*/
+    private volatile boolean open = true;
+
+    /**
+     * Construct server side of loopback connection.
+     * @param _inbound - data from client
+     * @param _outbound - data to client
+     * @param _loop - event loop, serving this channel
+     */
+    LoopbackChannel(final LoopbackPipe _inbound, final LoopbackPipe _outbound, final EventLoop _loop) {
+        inbound = _inbound;
+        outbound = _outbound;
+        loop = _loop;
+    }
+
+    /**
+     * Notify event loop about data or end of stream from client. Loop is notified once till it reads data.
+     */
+    void signal() {
+        if (readable.compareAndSet(false, true)) {
+            loop.readable(this);
+        }
+    }
+
+    /**
+     * Called by event loop before reading data.
+     */
+    void clearSignal() {
+        readable.set(false);
+    }
+
+    @Override
+    public int read(final ByteBuffer _dst) throws IOException {
+        return inbound.read(_dst);
+    }
+
+    @Override
+    public int write(final ByteBuffer _src) throws IOException {
+        return (int) outbound.write(new ByteBuffer[] {_src}, 0, 1);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] _srcs, final int _offset, final int _length) throws IOException {
+        return outbound.write(_srcs, _offset, _length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] _srcs) throws IOException {
+        return outbound.write(_srcs, 0, _srcs.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        inbound.closeRead();
+        outbound.closeWrite();
+    }
+}
@@ -0,0 +1,108 @@
+package com.manaldush.telnet.protocol;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of in-memory loopback connection to controller, created by {@link ImplController#connect()}. Data passes
+ * through the same decoding, authentication, dispatching and writing code as data of socket connections, but without
+ * kernel. Used for benchmarks and embedding. Connection is thread safe, reads and writes never block, except
+ * {@link #read(ByteBuffer, long, TimeUnit)}.
+ */
+public final class LoopbackConnection implements ByteChannel {
+    /**Data to server.*/
+    private final LoopbackPipe outbound;
+    /**Data from server.*/
+    private final LoopbackPipe inbound;
+    /**Server side of connection.*/
+    private final LoopbackChannel server;
+    /**Connection is open.*/
+    private volatile boolean open = true;
+
+    /**
+     * Construct loopback connection, served by event loop.
+     * @param _loop - event loop
+     */
+    LoopbackConnection(final EventLoop _loop) {
+        outbound = new LoopbackPipe();
+        inbound = new LoopbackPipe();
+        server = new LoopbackChannel(outbound, inbound, _loop);
+    }
+
+    /**
+     * Get server side of connection.
+     * @return server channel
+     */
+    LoopbackChannel getServer() {
+        return server;
+    }
+
+    /**
+     * Send data to server.
+     * @param _src - data
+     * @return number of written bytes, all remaining bytes are written
+     * @throws IOException - if connection was closed
+     */
+    @Override
+    public int write(final ByteBuffer _src) throws IOException {
+        int n = (int) outbound.write(new ByteBuffer[] {_src}, 0, 1);
+        server.signal();
+        return n;
+    }
+
+    /**
+     * Send bytes to server.
+     * @param _b - bytes
+     * @throws IOException - if connection was closed
+     */
+    public void write(final byte[] _b) throws IOException {
+        write(ByteBuffer.wrap(_b));
+    }
+
+    /**
+     * Read available data from server, never blocks.
+     * @param _dst - destination buffer
+     * @return number of read bytes, 0 if there is no data, -1 if server closed connection and all data was read
+     * @throws IOException - if connection was closed
+     */
+    @Override
+    public int read(final ByteBuffer _dst) throws IOException {
+        return inbound.read(_dst);
+    }
+
+    /**
+     * Read data from server, waiting for it not longer than timeout.
+     * @param _dst - destination buffer
+     * @param _timeout - timeout
+     * @param _unit - time unit of timeout
+     * @return number of read bytes, 0 if timeout expired, -1 if server closed connection and all data was read
+     * @throws IOException - if connection was closed
+     * @throws InterruptedException - if thread was interrupted
+     */
+    public int read(final ByteBuffer _dst, final long _timeout, final TimeUnit _unit)
+            throws IOException, InterruptedException {
+        Preconditions.checkNotNull(_unit);
+        inbound.await(_unit.toNanos(_timeout));
+        return inbound.read(_dst);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Close connection, server gets end of stream.
+     */
+    @Override
+    public void close() {
+        open = false;
+        outbound.closeWrite();
+        inbound.closeRead();
+        server.signal();
+    }
+}
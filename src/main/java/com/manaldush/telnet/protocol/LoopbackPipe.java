@@ -0,0 +1,119 @@
+package com.manaldush.telnet.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * In-memory byte pipe in one direction of loopback connection. Writer never blocks, buffer grows as needed.
+ */
+final class LoopbackPipe {
+    /**Initial size of buffer.*/
+    private static final int INIT_SIZE = 1024;
+    /**Written and not read data, buffer is in write mode.*/
+    private ByteBuffer buffer = ByteBuffer.allocate(INIT_SIZE);
+    /**Writer closed pipe: reader gets end of stream after rest of data.*/
+    private boolean writeClosed = false;
+    /**Reader closed pipe: data is not accepted anymore.*/
+    private boolean readClosed = false;
+
+    /**
+     * Write data to pipe.
+     * @param _srcs - buffers
+     * @param _offset - offset of first buffer
+     * @param _length - number of buffers
+     * @return number of written bytes
+     * @throws IOException - if pipe was closed
+     */
+    synchronized long write(final ByteBuffer[] _srcs, final int _offset, final int _length) throws IOException {
+        if (writeClosed) {
+            throw new ClosedChannelException();
+        }
+        if (readClosed) {
+            throw new IOException("Connection closed by peer");
+        }
+        long size = 0;
+        for (int i = _offset; i < _offset + _length; i++) {
+            size += _srcs[i].remaining();
+        }
+        ensureCapacity(size);
+        for (int i = _offset; i < _offset + _length; i++) {
+            buffer.put(_srcs[i]);
+        }
+        notifyAll();
+        return size;
+    }
+
+    /**
+     * Read available data from pipe, never blocks.
+     * @param _dst - destination buffer
+     * @return number of read bytes, 0 if there is no data, -1 if writer closed pipe and all data was read
+     * @throws IOException - if reader closed pipe
+     */
+    synchronized int read(final ByteBuffer _dst) throws IOException {
+        if (readClosed) {
+            throw new ClosedChannelException();
+        }
+        if (buffer.position() == 0) {
+            return writeClosed ? -1 : 0;
+        }
+        buffer.flip();
+        int n = Math.min(buffer.remaining(), _dst.remaining());
+        ByteBuffer part = buffer.duplicate();
+        part.limit(part.position() + n);
+        _dst.put(part);
+        buffer.position(buffer.position() + n);
+        buffer.compact();
+        return n;
+    }
+
+    /**
+     * Wait for data or end of stream.
+     * @param _nanos - max waiting time in nanoseconds
+     * @return TRUE if data or end of stream is available
+     * @throws InterruptedException - if thread was interrupted
+     */
+    synchronized boolean await(final long _nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + _nanos;
+        while (buffer.position() == 0 && !writeClosed && !readClosed) {
+            long rest = deadline - System.nanoTime();
+            if (rest <= 0) {
+                return false;
+            }
+            wait(rest / 1000000, (int) (rest % 1000000));
+        }
+        return true;
+    }
+
+    /**
+     * Close pipe by writer.
+     */
+    synchronized void closeWrite() {
+        writeClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Close pipe by reader, unread data is dropped.
+     */
+    synchronized void closeRead() {
+        readClosed = true;
+        buffer = ByteBuffer.allocate(0);
+        notifyAll();
+    }
+
+    private void ensureCapacity(final long _size) throws IOException {
+        if (buffer.remaining() >= _size) {
+            return;
+        }
+        long required = buffer.position() + _size;
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("Loopback buffer overflow");
+        }
+        ByteBuffer nbuffer = ByteBuffer.allocate((int) Math.max(required, Math.min(Integer.MAX_VALUE,
+                2L * buffer.capacity())));
+        buffer.flip();
+        nbuffer.put(buffer);
+        buffer = nbuffer;
+    }
+}
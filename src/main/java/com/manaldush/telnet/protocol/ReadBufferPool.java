@@ -0,0 +1,61 @@
+package com.manaldush.telnet.protocol;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of reusable read buffers. Pool belongs to one event loop and is used only by thread of this loop, so it is
+ * not thread safe.
+ */
+final class ReadBufferPool {
+    /**Size of every buffer in pool.*/
+    private final int bufferSize;
+    /**Allocate direct buffers or heap buffers.*/
+    private final boolean direct;
+    /**Free buffers.*/
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * Construct pool of read buffers.
+     * @param _bufferSize - size of buffer
+     * @param _direct - allocate direct buffers
+     * @throws IllegalArgumentException - if _bufferSize <= 0
+     */
+    ReadBufferPool(final int _bufferSize, final boolean _direct) {
+        Preconditions.checkArgument(_bufferSize > 0);
+        bufferSize = _bufferSize;
+        direct = _direct;
+    }
+
+    /**
+     * Take cleared buffer from pool, new buffer is allocated only if pool is empty.
+     * @return buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollFirst();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return buffer to pool.
+     * @param _buffer - buffer, taken from this pool
+     */
+    void release(final ByteBuffer _buffer) {
+        free.addFirst(_buffer);
+    }
+
+    /**
+     * Get size of buffers.
+     * @return buffer size
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+}
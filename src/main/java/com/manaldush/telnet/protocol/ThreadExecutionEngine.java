@@ -0,0 +1,34 @@
+package com.manaldush.telnet.protocol;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Execution engine, starting new platform thread for every task.
+ */
+final class ThreadExecutionEngine implements IExecutionEngine {
+    /**Engine was shut down.*/
+    private volatile boolean shutdown = false;
+
+    @Override
+    public void execute(final Runnable _task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Execution engine is shut down");
+        }
+        new Thread(_task).start();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return 0;
+    }
+
+    @Override
+    public double getUtilization() {
+        return 0;
+    }
+}
@@ -8,10 +8,23 @@ import com.manaldush.telnet.IClientSession;
  * Wrapper of session object.Session is completed by auth parameters.
  */
 public final class AuthTelnetClientSession {
+    /**States of authentication.*/
+    public enum State {
+        /**Session waits for user name.*/
+        USER_NAME,
+        /**Session waits for password.*/
+        PASSWORD,
+        /**Credentials were entered and are not checked yet.*/
+        CHECKING,
+        /**User was authenticated, session accepts commands.*/
+        AUTHENTICATED,
+        /**Credentials are illegal.*/
+        FAILED
+    }
     /**Client session.*/
     private final IClientSession session;
-    /**Is auth failed.*/
-    private boolean failed = false;
+    /**Is auth failed. Credentials are checked by other thread, than thread of session.*/
+    private volatile boolean failed = false;
     /**User name was installed.*/
     private boolean hasUserName = false;
     /**User password was installed.*/
@@ -21,7 +34,7 @@ public final class AuthTelnetClientSession {
     /**.Password value.*/
     private String passwd;
     /**User object.*/
-    private User user;
+    private volatile User user;
 
     /**
      * Construct auth telnet client session.
@@ -60,6 +73,24 @@ public final class AuthTelnetClientSession {
         return hasPasswd;
     }
 
+    /**
+     * Get state of authentication.
+     *
+     * @return state
+     */
+    public State getState() {
+        if (failed) {
+            return State.FAILED;
+        } else if (user != null) {
+            return State.AUTHENTICATED;
+        } else if (!hasUserName) {
+            return State.USER_NAME;
+        } else if (!hasPasswd) {
+            return State.PASSWORD;
+        }
+        return State.CHECKING;
+    }
+
     /**
      * Set user name associated with this session.
      *
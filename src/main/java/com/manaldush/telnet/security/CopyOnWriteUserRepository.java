@@ -0,0 +1,86 @@
+package com.manaldush.telnet.security;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Repository of users and roles, keeping them in immutable snapshots. Lookups read the current snapshot without
+ * locking, changes are serialized and publish new snapshot.
+ */
+public final class CopyOnWriteUserRepository implements IUserRepository {
+    /**Roles snapshot.*/
+    private volatile ImmutableSet<String> roles = ImmutableSet.of(Role.SYSTEM_ROLE);
+    /**Users snapshot: name -> user.*/
+    private volatile ImmutableMap<String, User> users = ImmutableMap.of();
+
+    @Override
+    public synchronized void addRole(final String _name) {
+        Preconditions.checkNotNull(_name);
+        if (roles.contains(_name)) {
+            return;
+        }
+        roles = ImmutableSet.<String>builder().addAll(roles).add(_name).build();
+    }
+
+    @Override
+    public synchronized boolean removeRole(final String _name) {
+        Preconditions.checkArgument(!Role.SYSTEM_ROLE.equals(_name), "System role can not be removed");
+        if (!roles.contains(_name)) {
+            return false;
+        }
+        Set<String> copy = new HashSet<>(roles);
+        copy.remove(_name);
+        roles = ImmutableSet.copyOf(copy);
+        return true;
+    }
+
+    @Override
+    public boolean containsRole(final String _name) {
+        return roles.contains(_name);
+    }
+
+    @Override
+    public Set<String> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public synchronized void clearRoles() {
+        roles = ImmutableSet.of(Role.SYSTEM_ROLE);
+    }
+
+    @Override
+    public synchronized void addUser(final User _user) {
+        Preconditions.checkNotNull(_user);
+        Preconditions.checkArgument(!users.containsKey(_user.getName()),
+                String.format("User = [%s] has been already created", _user.getName()));
+        users = ImmutableMap.<String, User>builder().putAll(users).put(_user.getName(), _user).build();
+    }
+
+    @Override
+    public synchronized boolean removeUser(final String _name) {
+        if (!users.containsKey(_name)) {
+            return false;
+        }
+        Map<String, User> copy = new HashMap<>(users);
+        copy.remove(_name);
+        users = ImmutableMap.copyOf(copy);
+        return true;
+    }
+
+    @Override
+    public User getUser(final String _name) {
+        return users.get(_name);
+    }
+
+    @Override
+    public synchronized void clearUsers() {
+        users = ImmutableMap.of();
+    }
+}
@@ -0,0 +1,67 @@
+package com.manaldush.telnet.security;
+
+import java.util.Set;
+
+/**
+ * Storage of users and roles. Lookups are done by worker threads on every login and every command, so they should
+ * not block. Users and roles may be added and removed while server is running.
+ */
+public interface IUserRepository {
+    /**
+     * Add role, existing role is kept.
+     * @param _name - role name
+     */
+    void addRole(String _name);
+
+    /**
+     * Remove role. Users, that were created with this role, keep it.
+     * @param _name - role name
+     * @return TRUE if role was removed
+     * @throws IllegalArgumentException - if role is system role
+     */
+    boolean removeRole(String _name);
+
+    /**
+     * Check role exists.
+     * @param _name - role name
+     * @return TRUE/FALSE
+     */
+    boolean containsRole(String _name);
+
+    /**
+     * Get names of all roles.
+     * @return unmodifiable set of role names
+     */
+    Set<String> getRoles();
+
+    /**
+     * Remove all roles except system role.
+     */
+    void clearRoles();
+
+    /**
+     * Add user.
+     * @param _user - user
+     * @throws IllegalArgumentException - if user with the same name exists
+     */
+    void addUser(User _user);
+
+    /**
+     * Remove user.
+     * @param _name - user name
+     * @return TRUE if user was removed
+     */
+    boolean removeUser(String _name);
+
+    /**
+     * Get user.
+     * @param _name - user name
+     * @return user or null
+     */
+    User getUser(String _name);
+
+    /**
+     * Remove all users.
+     */
+    void clearUsers();
+}
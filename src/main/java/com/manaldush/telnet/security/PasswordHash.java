@@ -0,0 +1,84 @@
+package com.manaldush.telnet.security;
+
+import com.google.common.base.Preconditions;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Salted PBKDF2 hash of user password. Plaintext password is not stored.
+ */
+final class PasswordHash {
+    /**Key derivation algorithm.*/
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    /**Number of iterations of key derivation.*/
+    private static final int ITERATIONS = 65536;
+    /**Size of salt in bytes.*/
+    private static final int SALT_SIZE = 16;
+    /**Size of hash in bits.*/
+    private static final int HASH_SIZE = 256;
+    /**Source of salts.*/
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /**Random salt of this hash.*/
+    private final byte[] salt;
+    /**Derived hash.*/
+    private final byte[] hash;
+
+    private PasswordHash(final byte[] _salt, final byte[] _hash) {
+        salt = _salt;
+        hash = _hash;
+    }
+
+    /**
+     * Hash password with new random salt.
+     * @param _passwd - password
+     * @return hash
+     * @throws NullPointerException - if password is null
+     */
+    static PasswordHash create(final String _passwd) {
+        Preconditions.checkNotNull(_passwd);
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(salt, derive(_passwd, salt));
+    }
+
+    /**
+     * Check password against this hash. Comparison takes the same time for all passwords of the same length.
+     * @param _passwd - password
+     * @return TRUE if password matches
+     */
+    boolean verify(final String _passwd) {
+        return MessageDigest.isEqual(hash, derive(_passwd, salt));
+    }
+
+    /**
+     * Fast salted digest of password, used for comparison with recently verified password instead of key derivation.
+     * @param _passwd - password
+     * @return digest
+     */
+    byte[] digest(final String _passwd) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(salt);
+            return md.digest(_passwd.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] derive(final String _passwd, final byte[] _salt) {
+        PBEKeySpec spec = new PBEKeySpec(_passwd.toCharArray(), _salt, ITERATIONS, HASH_SIZE);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package com.manaldush.telnet.security;
 
 import com.google.common.base.Preconditions;
-import java.util.HashSet;
-import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Describe role object, applicable for user.
@@ -12,14 +12,14 @@ import java.util.Set;
 public final class Role {
     /**Role name.*/
     private final String name;
-    /**Available roles set.*/
-    private static final Set<Role> ROLES = new HashSet<>();
+    /**Dense id of role, index of role in bitsets of users and command templates.*/
+    private final int id;
+    /**Ids of role names. Id is assigned when role is registered first time and is never reused, so bitsets stay valid
+     * after role is removed and registered again.*/
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
     /**Name of system role, available for all users by default. This role is used for availability of such system
-     * commands as 'help' or 'quit'.*/
+     * commands as 'help' or 'quit'. Repository always contains it.*/
     public static final String SYSTEM_ROLE = "system";
-    static {
-        Role.build(SYSTEM_ROLE);
-    }
 
     /**
      * Construct role object.
@@ -31,6 +31,41 @@ public final class Role {
         Preconditions.checkNotNull(_name, "Role name must not be null");
         Preconditions.checkArgument(!_name.isEmpty(), "Role name must not be empty");
         name = _name.intern();
+        id = assignId(name);
+    }
+
+    /**
+     * Get id of role name, assign next id if name has no id yet.
+     * @param _name - role name
+     * @return id
+     */
+    private static synchronized int assignId(final String _name) {
+        Integer id = IDS.get(_name);
+        if (id == null) {
+            id = IDS.size();
+            IDS.put(_name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get id of role name without assigning it.
+     * @param _name - role name
+     * @return id or -1 if name has no id
+     */
+    static int findId(final String _name) {
+        Integer id = IDS.get(_name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get id of registered role. Ids are dense, so they are used as indexes in bitsets of roles.
+     * @param _name - role name
+     * @return id or -1 if role does not exist
+     */
+    public static int idOf(final String _name) {
+        Role role = getRole(_name);
+        return role == null ? -1 : role.id;
     }
 
     /**
@@ -39,7 +74,18 @@ public final class Role {
      * @param _name - role name
      */
     public static void build(final String _name) {
-        ROLES.add(new Role(_name));
+        User.getRepository().addRole(new Role(_name).name);
+    }
+
+    /**
+     * Remove role from role list. Users, that were created with this role, keep it.
+     *
+     * @param _name - role name
+     * @return TRUE if role was removed
+     * @throws IllegalArgumentException - if role is system role
+     */
+    public static boolean remove(final String _name) {
+        return User.getRepository().removeRole(_name);
     }
 
     @Override
@@ -59,7 +105,8 @@ public final class Role {
      * @return - TRUE/FALSE
      */
     public static boolean containRole(final String _name) {
-        return ROLES.contains(new Role(_name));
+        Preconditions.checkNotNull(_name, "Role name must not be null");
+        return User.getRepository().containsRole(_name);
     }
 
     /**
@@ -68,9 +115,8 @@ public final class Role {
      * @return role or null
      */
     static Role getRole(final String _name) {
-        Role r = new Role(_name);
-        if (ROLES.contains(r)) {
-            return r;
+        if (containRole(_name)) {
+            return new Role(_name);
         }
         return null;
     }
@@ -79,8 +125,7 @@ public final class Role {
      * Reset roles list, only default system role will be exist.
      */
     public static void clear() {
-        ROLES.clear();
-        Role.build(SYSTEM_ROLE);
+        User.getRepository().clearRoles();
     }
 
     /**
@@ -88,7 +133,7 @@ public final class Role {
      * @return size
      */
     static int size() {
-        return ROLES.size();
+        return User.getRepository().getRoles().size();
     }
 
     /**
@@ -98,4 +143,12 @@ public final class Role {
     public String getName() {
         return name;
     }
+
+    /**
+     * Get id of role.
+     * @return role id
+     */
+    public int getId() {
+        return id;
+    }
 }
@@ -1,11 +1,13 @@
 package com.manaldush.telnet.security;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.security.MessageDigest;
+import java.util.BitSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describe user object.
@@ -16,27 +18,55 @@ import java.util.Set;
 public final class User {
     /**User name.*/
     private final String name;
-    /**User password.*/
-    private final String passwd;
-    /**User roles.*/
-    private final Set<Role> roles;
-    /**Users map name -> user.*/
-    private static final Map<String, User> USERS = new HashMap<>();
+    /**Max number of recently verified credentials.*/
+    private static final int VERIFIED_CACHE_SIZE = 1024;
+    /**Time in minutes, during which verified credentials are checked without key derivation.*/
+    private static final long VERIFIED_CACHE_TTL = 5;
+    /**Hash of user password.*/
+    private final PasswordHash passwd;
+    /**User roles: bit is set for id of every role.*/
+    private final BitSet roles;
+    /**Repository of users and roles.*/
+    private static volatile IUserRepository repository = new CopyOnWriteUserRepository();
+    /**Recently verified credentials: user name -> fast salted digest of password. Repeated logins, e.g. reconnects of
+     * automation, are checked by digest instead of expensive key derivation.*/
+    private static final Cache<String, byte[]> VERIFIED = CacheBuilder.newBuilder()
+            .maximumSize(VERIFIED_CACHE_SIZE).expireAfterWrite(VERIFIED_CACHE_TTL, TimeUnit.MINUTES).build();
+    /**Hash, checked for unknown user names, so time of check doesn't tell whether user exists.*/
+    private static final PasswordHash DUMMY_HASH = PasswordHash.create("dummy");
 
     /**
      * Constructor of User object.
      * @param _name - user name
-     * @param _passwd - user password
+     * @param _passwd - hash of user password
      * @param _roles - roles set
      */
-    private User(final String _name, final String _passwd, final Set<Role> _roles) {
+    private User(final String _name, final PasswordHash _passwd, final BitSet _roles) {
         name = _name;
         passwd = _passwd;
         roles = _roles;
     }
 
     /**
-     * Build user object. Create user and add user in user map.
+     * Set repository of users and roles. Users and roles of previous repository are not copied.
+     * @param _repository - repository
+     * @throws NullPointerException - if _repository is null
+     */
+    public static void setRepository(final IUserRepository _repository) {
+        repository = Preconditions.checkNotNull(_repository);
+        VERIFIED.invalidateAll();
+    }
+
+    /**
+     * Get repository of users and roles.
+     * @return repository
+     */
+    public static IUserRepository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Build user object. Create user and add user in user map. Password is stored as salted hash.
      * @param _name - user name
      * @param _passwd - user password
      * @param _roles - set of roles
@@ -44,20 +74,49 @@ public final class User {
      * @throws IllegalArgumentException - if _roles is empty, if user with such name has been already created
      */
     public static void build(final String _name, final String _passwd, final Set<String> _roles) {
+        repository.addUser(create(_name, _passwd, _roles));
+    }
+
+    /**
+     * Create user object without adding it in repository.
+     * @param _name - user name
+     * @param _passwd - user password
+     * @param _roles - set of roles
+     * @return user
+     * @throws NullPointerException - if _roles is null pointer
+     * @throws IllegalArgumentException - if _roles is empty or contains not registered role
+     */
+    public static User create(final String _name, final String _passwd, final Set<String> _roles) {
         checkParameters(_name, _passwd);
         Preconditions.checkNotNull(_roles, "Roles list is empty");
         Preconditions.checkArgument(!_roles.isEmpty(), "Roles list is empty");
-        Preconditions.checkArgument(!USERS.containsKey(_name),
-                String.format("User = [%s] has been already created", _name));
-        Set<Role> roles = new HashSet<>();
-        roles.add(Role.getRole(Role.SYSTEM_ROLE));
+        BitSet roles = new BitSet();
+        roles.set(Role.getRole(Role.SYSTEM_ROLE).getId());
         for (String entry:_roles) {
             Preconditions.checkNotNull(entry, "Roles list contain null role");
             Role role = Role.getRole(entry);
             Preconditions.checkNotNull(role, String.format("Role with name [%s] was not registered", entry));
-            roles.add(role);
+            roles.set(role.getId());
         }
-        USERS.put(_name.intern(), new User(_name.intern(), _passwd.intern(), roles));
+        return new User(_name.intern(), PasswordHash.create(_passwd), roles);
+    }
+
+    /**
+     * Remove user, sessions of removed user are not closed.
+     * @param _name - user name
+     * @return TRUE if user was removed
+     */
+    public static boolean remove(final String _name) {
+        VERIFIED.invalidate(_name);
+        return repository.removeUser(_name);
+    }
+
+    /**
+     * Get name of user.
+     * @return user name
+     */
+    public String getName() {
+        return name;
     }
 
     /**
@@ -67,7 +126,8 @@ public final class User {
      * @return - TRUE/FALSE
      */
     public boolean hasRole(final String _name) {
-        return roles.contains(new Role(_name));
+        int id = Role.findId(_name);
+        return id >= 0 && roles.get(id);
     }
 
     /**
@@ -76,7 +136,16 @@ public final class User {
      * @return - TRUE/FALSE
      */
     public boolean hasRole(final Role _role) {
-        return roles.contains(_role);
+        return roles.get(_role.getId());
+    }
+
+    /**
+     * Check if user has at least one role of set.
+     * @param _roles - bitset of role ids
+     * @return TRUE/FALSE
+     */
+    public boolean hasAnyRole(final BitSet _roles) {
+        return roles.intersects(_roles);
     }
 
     @Override
@@ -99,22 +168,31 @@ public final class User {
         if (_name.isEmpty() || _passwd.isEmpty()) {
             return null;
         }
-        User user = USERS.get(_name);
+        User user = repository.getUser(_name);
         if (user == null) {
-            return user;
+            // unknown user costs the same key derivation as known one
+            DUMMY_HASH.verify(_passwd);
+            return null;
         }
-        if (user.passwd.equals(_passwd)) {
+        // digest is salted by hash of user, so recreated user doesn't match cached digest
+        byte[] digest = user.passwd.digest(_passwd);
+        byte[] verified = VERIFIED.getIfPresent(_name);
+        if (verified != null && MessageDigest.isEqual(verified, digest)) {
             return user;
-        } else {
+        }
+        if (!user.passwd.verify(_passwd)) {
             return null;
         }
+        VERIFIED.put(_name, digest);
+        return user;
     }
 
     /**
      * Reset created users.
      */
     public static void clear() {
-        USERS.clear();
+        repository.clearUsers();
+        VERIFIED.invalidateAll();
     }
 
     /**
@@ -24,6 +24,9 @@ public class CommandTemplateTest {
         assertTrue(template.getCommandProcessorFactory() != null);
         assertTrue(template.getFullDescription().compareTo("command test - description") == 0);
         assertTrue(template.hasOption("test") == null);
+        assertFalse(template.isInline());
+        template.setInline(true);
+        assertTrue(template.isInline());
     }
 
     @Test
@@ -2,8 +2,10 @@ package com.manaldush.telnet;
 
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertTrue;
 
@@ -19,6 +21,18 @@ public class ConfigurationTest {
         conf.setMaxSessions(10);
         conf.setREUSEADDR(Boolean.TRUE);
         conf.setTCPNODELAY(Boolean.TRUE);
+        conf.setWorkers(4);
+        conf.setExecutionMode(ExecutionMode.VIRTUAL_THREAD);
+        conf.setPoolSize(3);
+        conf.addEndpoint("127.0.0.1", 2323).setReusePort(Boolean.TRUE);
+        conf.setBacklog(128).setAcceptBatch(16).setAcceptRate(100, 20);
+        conf.setIdleTimeout(5, TimeUnit.MINUTES).setLoginTimeout(30, TimeUnit.SECONDS).setSessionTimeout(1, TimeUnit.HOURS);
+        conf.setReadBufferSize(8192);
+        conf.setDirectReadBuffer(Boolean.TRUE);
+        conf.setReadQuota(1024, 16);
+        conf.setCommandQueue(32, QueueOverflowPolicy.DROP_OLDEST);
+        conf.setAuthThreads(3);
+        conf.setMaxLineLength(128);
         conf.setParser(new ICommandParserFactory() {
             @Override
             public ICommandParser build(String _cmd) throws ParseException {
@@ -34,5 +48,24 @@ public class ConfigurationTest {
         assertTrue(conf2.getSoSndBuf() == 2048);
         assertTrue(conf2.getAddress().getHostName().compareTo("localhost") == 0);
         assertTrue(conf2.getParser() != null);
+        assertTrue(conf2.getWorkers() == 4);
+        assertTrue(conf2.getExecutionMode() == ExecutionMode.VIRTUAL_THREAD);
+        assertTrue(conf2.getPoolSize() == 3);
+        assertTrue(conf2.getEndpoints().size() == 2);
+        assertTrue(((InetSocketAddress) conf2.getEndpoints().get(1)).getPort() == 2323);
+        assertTrue(conf2.getReusePort());
+        assertTrue(conf2.getBacklog() == 128);
+        assertTrue(conf2.getAcceptBatch() == 16);
+        assertTrue(conf2.getAcceptRate() == 100 && conf2.getAcceptBurst() == 20);
+        assertTrue(conf2.getIdleTimeout() == 300000);
+        assertTrue(conf2.getLoginTimeout() == 30000);
+        assertTrue(conf2.getSessionTimeout() == 3600000);
+        assertTrue(conf2.getReadBufferSize() == 8192);
+        assertTrue(conf2.getDirectReadBuffer());
+        assertTrue(conf2.getReadQuotaBytes() == 1024 && conf2.getReadQuotaLines() == 16);
+        assertTrue(conf2.getCommandQueueCapacity() == 32);
+        assertTrue(conf2.getQueueOverflowPolicy() == QueueOverflowPolicy.DROP_OLDEST);
+        assertTrue(conf2.getAuthThreads() == 3);
+        assertTrue(conf2.getMaxLineLength() == 128);
     }
 }
\ No newline at end of file
@@ -4,8 +4,8 @@ import com.manaldush.telnet.IClientSession;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.List;
 
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -16,7 +16,7 @@ public class OptionTest {
     public void test() {
         Option option = new Option((byte)0xFA, true, true) {
             @Override
-            protected void innerSubNegotiation(List<Byte> _b, IClientSession _session, Charset _charset) {
+            protected void innerSubNegotiation(ByteBuffer _b, IClientSession _session, Charset _charset) {
 
             }
         };
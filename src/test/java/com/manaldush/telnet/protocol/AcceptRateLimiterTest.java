@@ -0,0 +1,29 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AcceptRateLimiterTest {
+    @Test
+    public void limit() {
+        long now = 0;
+        AcceptRateLimiter limiter = new AcceptRateLimiter(10, 2, now);
+        // burst is accepted at once
+        assertTrue(limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now));
+        // one token per 100 ms
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now));
+        // bucket is not filled above burst
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertTrue(limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now));
+    }
+}
@@ -11,16 +11,21 @@ import com.manaldush.telnet.protocol.processors.KeepAliveProcessor;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyByte;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyByte;
 import static org.mockito.Mockito.*;
 
 /**
@@ -36,9 +41,7 @@ public class DecoderTest {
         Decoder decoder = new Decoder(session);
         ByteBuffer buffer = ByteBuffer.allocate(100);
         buffer.put("test\r\n".getBytes());
-        ByteBuffer bufferResponse = ByteBuffer.allocate(100);
-        bufferResponse.put("test".getBytes());
-        when(session.getBuffer()).thenReturn(bufferResponse);
+        when(session.takeLine(any(Charset.class))).thenReturn("test");
         List<String> res = decoder.decode(buffer, 6);
         assertTrue(res.size() == 1);
         assertTrue("test".compareTo(res.get(0)) == 0);
@@ -54,18 +57,14 @@ public class DecoderTest {
         buffer = ByteBuffer.allocate(100);
         buffer.put(" command\r\n".getBytes());
 
-        ByteBuffer bufferResponse = ByteBuffer.allocate(100);
-        bufferResponse.put("test command".getBytes());
-        when(session.getBuffer()).thenReturn(bufferResponse);
+        when(session.takeLine(any(Charset.class))).thenReturn("test command");
         List<String> decodedLines = decoder.decode(buffer, 10);
         assertTrue(decodedLines.size() == 1);
         assertTrue(decodedLines.get(0).compareTo("test command") == 0);
 
         buffer = ByteBuffer.allocate(100);
         buffer.put("test\r\n".getBytes());
-        bufferResponse = ByteBuffer.allocate(100);
-        bufferResponse.put("test".getBytes());
-        when(session.getBuffer()).thenReturn(bufferResponse);
+        when(session.takeLine(any(Charset.class))).thenReturn("test");
         decodedLines = decoder.decode(buffer, 6);
         assertTrue(decodedLines.size() == 1);
         assertTrue("test".compareTo(decodedLines.get(0)) == 0);
@@ -390,11 +389,7 @@ public class DecoderTest {
         buffer.put(cmd);
         buffer.put("test2\r\n".getBytes());
 
-        ByteBuffer bufferResponse1 = ByteBuffer.allocate(100);
-        bufferResponse1.put("test1".getBytes());
-        ByteBuffer bufferResponse2 = ByteBuffer.allocate(100);
-        bufferResponse2.put("test2".getBytes());
-        when(session.getBuffer()).thenReturn(bufferResponse1).thenReturn(bufferResponse2);
+        when(session.takeLine(any(Charset.class))).thenReturn("test1").thenReturn("test2");
 
         List<String> decodedLines = decoder.decode(buffer, 18);
         Mockito.verify(session).abortCurrentTask();
@@ -488,12 +483,12 @@ public class DecoderTest {
             }
 
             @Override
-            public void subNegotiation(byte _val, List<Byte> _b, Charset _charset) {
+            public void subNegotiation(byte _val, ByteBuffer _b, Charset _charset) {
                 assertTrue((_val & 0xFF) == 0x01);
-                assertTrue(_b.size() == 3);
-                assertTrue((_b.get(0) & 0xFF) == 0x02);
-                assertTrue((_b.get(1) & 0xFF) == 0x03);
-                assertTrue((_b.get(2) & 0xFF) == 0x04);
+                assertTrue(_b.remaining() == 3);
+                assertTrue((_b.get(_b.position()) & 0xFF) == 0x02);
+                assertTrue((_b.get(_b.position() + 1) & 0xFF) == 0x03);
+                assertTrue((_b.get(_b.position() + 2) & 0xFF) == 0x04);
                 test12 = true;
             }
 
@@ -511,4 +506,55 @@ public class DecoderTest {
         assertTrue(test12);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_13() throws IOException, GeneralTelnetException {
+        //Check data runs between CR and IAC bytes are collected in session buffer, heap and direct buffers
+        for (boolean direct : new boolean[] {false, true}) {
+            IClientSession session = new ImplTelnetClientSession(Mockito.mock(SocketChannel.class),
+                    Mockito.mock(EventLoop.class), 4, null, "->");
+            Decoder decoder = new Decoder(session);
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(100) : ByteBuffer.allocate(100);
+            buffer.put("first line\r\nsec".getBytes());
+            buffer.put(new byte[] {(byte) Constants.IAC, (byte) Constants.ARE_YOU_THERE});
+            buffer.put("ond\nline\r\nthi".getBytes());
+            List<String> res = decoder.decode(buffer, buffer.position());
+            assertEquals(2, res.size());
+            assertEquals("first line", res.get(0));
+            assertEquals("second\nline", res.get(1));
+            buffer.clear();
+            buffer.put("rd\r\n".getBytes());
+            res = decoder.decode(buffer, buffer.position());
+            assertEquals(1, res.size());
+            assertEquals("third", res.get(0));
+        }
+    }
+
+    @Test
+    public void test_14() throws IOException, GeneralTelnetException {
+        //Check buffer of sub negotiation is reused by consecutive SB SE commands
+        IClientSession session = Mockito.mock(IClientSession.class);
+        final List<String> payloads = new ArrayList<>();
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock _invocation) {
+                ByteBuffer b = _invocation.getArgument(1);
+                byte[] bytes = new byte[b.remaining()];
+                b.get(b.position(), bytes);
+                payloads.add(new String(bytes));
+                buffers.add(b);
+                return null;
+            }
+        }).when(session).subNegotiation(anyByte(), any(ByteBuffer.class), any(Charset.class));
+        Decoder decoder = new Decoder(session);
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.put(new byte[] {(byte)Constants.IAC, (byte)Constants.SB, 0x18, 'a', 'b', 'c', (byte)Constants.IAC,
+                (byte)Constants.SE});
+        buffer.put(new byte[] {(byte)Constants.IAC, (byte)Constants.SB, 0x18, 'd', (byte)Constants.IAC,
+                (byte)Constants.SE});
+        decoder.decode(buffer, buffer.position());
+        assertEquals(Arrays.asList("abc", "d"), payloads);
+        assertTrue(buffers.get(0) == buffers.get(1));
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Selector;
+
+import static org.junit.Assert.assertTrue;
+
+public class EventLoopTest {
+    @Test
+    public void test_register_after_exit() throws Exception {
+        // controller is not started, loop exits at once
+        ImplController controller = Mockito.mock(ImplController.class);
+        Selector selector = Selector.open();
+        try {
+            EventLoop loop = new EventLoop(controller, selector, new ReadBufferPool(16, false));
+            loop.run();
+            // channel, handed over by acceptor after loop exit, is closed and its session slot is released
+            ByteChannel channel = Mockito.mock(ByteChannel.class);
+            loop.register(channel);
+            Mockito.verify(channel).close();
+            Mockito.verify(controller).releaseSession();
+            assertTrue(loop.getLoad() == 0);
+        } finally {
+            selector.close();
+        }
+    }
+}
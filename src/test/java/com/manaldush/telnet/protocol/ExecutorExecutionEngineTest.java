@@ -0,0 +1,40 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class ExecutorExecutionEngineTest {
+    @Test
+    public void pool() throws InterruptedException {
+        ExecutorExecutionEngine engine = ExecutorExecutionEngine.pool(2);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        try {
+            for (int i = 0; i < 5; i++) {
+                engine.execute(task);
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // number of threads is bounded, the rest tasks wait
+            assertTrue(engine.getQueueDepth() == 3);
+            assertTrue(engine.getUtilization() == 1.0);
+        } finally {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+    private static Runnable task(final List<String> _log, final String _name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                _log.add(_name);
+            }
+        };
+    }
+
+    @Test
+    public void expire() {
+        List<String> log = new ArrayList<>();
+        HashedWheelTimer timer = new HashedWheelTimer(10, 4, 0);
+        assertTrue(timer.nextTickDelay(0) == -1);
+        timer.schedule(task(log, "a"), 25, 0);
+        // deadline is beyond one round of wheel
+        timer.schedule(task(log, "b"), 95, 0);
+        assertTrue(timer.size() == 2);
+        assertTrue(timer.nextTickDelay(3) == 1);
+        assertTrue(timer.expire(29) == 0);
+        assertTrue(timer.expire(30) == 1);
+        assertTrue(log.get(0).equals("a"));
+        assertTrue(timer.expire(90) == 0);
+        assertTrue(timer.expire(100) == 1);
+        assertTrue(log.get(1).equals("b"));
+        assertTrue(timer.size() == 0);
+        assertTrue(timer.nextTickDelay(100) == -1);
+    }
+
+    @Test
+    public void cancel() {
+        List<String> log = new ArrayList<>();
+        HashedWheelTimer timer = new HashedWheelTimer(10, 4, 0);
+        HashedWheelTimer.Timeout a = timer.schedule(task(log, "a"), 10, 0);
+        HashedWheelTimer.Timeout b = timer.schedule(task(log, "b"), 10, 0);
+        a.cancel();
+        a.cancel();
+        assertFalse(a.isScheduled());
+        assertTrue(timer.size() == 1);
+        assertTrue(timer.expire(10) == 1);
+        assertTrue(log.size() == 1 && log.get(0).equals("b"));
+        assertFalse(b.isScheduled());
+    }
+
+    @Test
+    public void reschedule() {
+        final List<String> log = new ArrayList<>();
+        final HashedWheelTimer timer = new HashedWheelTimer(10, 4, 0);
+        // expired task schedules new one
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                log.add("a");
+                timer.schedule(task(log, "b"), 0, 10);
+            }
+        }, 10, 0);
+        assertTrue(timer.expire(10) == 1);
+        assertTrue(timer.expire(20) == 1);
+        assertTrue(log.size() == 2);
+    }
+}
@@ -1,5 +1,6 @@
 package com.manaldush.telnet.protocol;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.manaldush.telnet.*;
 import com.manaldush.telnet.exceptions.ConfigurationException;
 import com.manaldush.telnet.exceptions.GeneralTelnetException;
@@ -11,7 +12,10 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
@@ -27,11 +31,12 @@ import java.nio.channels.*;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyInt;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -41,6 +46,7 @@ import static org.mockito.Mockito.when;
  * Created by Maxim.Melnikov on 30.06.2017.
  */
 @RunWith(PowerMockRunner.class)
+@PowerMockIgnore("javax.crypto.*")
 @PrepareForTest(AbstractSelectableChannel.class)
 public class ImplControllerTest {
 
@@ -63,6 +69,9 @@ public class ImplControllerTest {
         private SocketChannel channel = null;
         private ImplController controller = null;
         private SelectionKey key = null;
+        private EventLoop loop = null;
+        private Selector loopSelector = null;
+        private SelectionKey clientKey = null;
 
         public ConfigurationWrapper getConf() {
             return conf;
@@ -99,6 +108,33 @@ public class ImplControllerTest {
             this.key = key;
             return this;
         }
+
+        public EventLoop getLoop() {
+            return loop;
+        }
+
+        public TestContext setLoop(EventLoop loop) {
+            this.loop = loop;
+            return this;
+        }
+
+        public Selector getLoopSelector() {
+            return loopSelector;
+        }
+
+        public TestContext setLoopSelector(Selector loopSelector) {
+            this.loopSelector = loopSelector;
+            return this;
+        }
+
+        public SelectionKey getClientKey() {
+            return clientKey;
+        }
+
+        public TestContext setClientKey(SelectionKey clientKey) {
+            this.clientKey = clientKey;
+            return this;
+        }
     }
 
     @Test
@@ -147,31 +183,37 @@ public class ImplControllerTest {
     }
 
     @Test
-    @PrepareForTest({ImplController.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
     public void test_2() throws NoSuchFieldException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, IOException {
         // check accept new connection
         TestContext context = prepareServerAccept();
         ImplController controller = context.getController();
         // Execute method
-        Method processKeys = controller.getClass().getDeclaredMethod("processKeys", null);
-        processKeys.setAccessible(true);
-        processKeys.invoke(controller, null);
+        invoke(controller, "processKeys");
 
-        // check session was created in container
-        Field field = controller.getClass().getDeclaredField("sessions");
-        field.setAccessible(true);
-        Map<SocketChannel, IClientSession> sessions = (Map<SocketChannel, IClientSession>)field.get(controller);
+        // check connection was handed over to worker loop and session was created in its container
+        Map<SocketChannel, AuthTelnetClientSession> sessions = sessions(context.getLoop());
+        assertTrue(sessions.size() == 0);
+        invoke(context.getLoop(), "processKeys");
         assertTrue(sessions.size() == 1);
+        assertTrue(context.getLoop().getLoad() == 1);
         SocketChannel channel = sessions.entrySet().iterator().next().getKey();
 
         // check session was deleted
-        controller.resetSession(channel);
+        context.getLoop().resetSession(channel);
         assertTrue(sessions.size() == 0);
+        assertTrue(context.getLoop().getLoad() == 0);
+        Field field = ImplController.class.getDeclaredField("sessionsNumber");
+        field.setAccessible(true);
+        assertTrue(((AtomicInteger) field.get(controller)).get() == 0);
+        // repeated reset is ignored
+        context.getLoop().resetSession(channel);
+        assertTrue(((AtomicInteger) field.get(controller)).get() == 0);
     }
 
 
     @Test
-    @PrepareForTest({ImplController.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
     public void test_3() throws NoSuchFieldException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, IOException {
         // check refuse connection because max sessions limit was over
         TestContext context = prepareServerAccept();
@@ -179,47 +221,75 @@ public class ImplControllerTest {
         // limit sessions
         Field field = controller.getClass().getDeclaredField("sessionsNumber");
         field.setAccessible(true);
-        field.set(controller, 10);
+        ((AtomicInteger) field.get(controller)).set(10);
         context.getConf().getConf().setMaxSessions(10);
         // Execute method
-        Method processKeys = controller.getClass().getDeclaredMethod("processKeys", null);
-        processKeys.setAccessible(true);
-        processKeys.invoke(controller, null);
+        invoke(controller, "processKeys");
+        invoke(context.getLoop(), "processKeys");
 
-        // check session was created in container
-        field = controller.getClass().getDeclaredField("sessions");
-        field.setAccessible(true);
-        Map<SocketChannel, IClientSession> sessions = (Map<SocketChannel, IClientSession>)field.get(controller);
+        // check session was not created in container
+        Map<SocketChannel, AuthTelnetClientSession> sessions = sessions(context.getLoop());
         assertTrue(sessions.size() == 0);
+        assertTrue(context.getLoop().getLoad() == 0);
 
-        // check response unknown command
+        // check response sessions limit
         Mockito.verify(context.getChannel()).write(any(ByteBuffer.class));
+        Mockito.verify(context.getChannel()).close();
+    }
+
+    @Test
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    public void test_balancing() throws NoSuchFieldException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, IOException {
+        // check sessions are spread between worker loops
+        TestContext context = prepareServerAccept();
+        ImplController controller = context.getController();
+        Selector loopSelector = PowerMockito.mock(Selector.class);
+        EventLoop second = new EventLoop(controller, loopSelector, new ReadBufferPool(context.getConf().getConf().getReadBufferSize(), false));
+        Field field = ImplController.class.getDeclaredField("loops");
+        field.setAccessible(true);
+        field.set(controller, new EventLoop[] {context.getLoop(), second});
+        // all pending connections are accepted at one wakeup
+        ServerSocketChannel ss = (ServerSocketChannel) context.getKey().channel();
+        PowerMockito.when(ss.accept()).thenReturn(context.getChannel(), context.getChannel(), null);
+        invoke(controller, "processKeys");
+        assertTrue(context.getLoop().getLoad() == 1);
+        assertTrue(second.getLoad() == 1);
+        PowerMockito.when(ss.accept()).thenReturn(context.getChannel(), (SocketChannel) null);
+        invoke(controller, "processKeys");
+        assertTrue(context.getLoop().getLoad() + second.getLoad() == 3);
     }
 
+    @Test
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    public void test_accept_batch() throws NoSuchFieldException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, IOException {
+        // check number of connections accepted per wakeup is limited
+        TestContext context = prepareServerAccept();
+        ImplController controller = context.getController();
+        context.getConf().getConf().setAcceptBatch(2);
+        ServerSocketChannel ss = (ServerSocketChannel) context.getKey().channel();
+        PowerMockito.when(ss.accept()).thenReturn(context.getChannel());
+        invoke(controller, "processKeys");
+        assertTrue(context.getLoop().getLoad() == 2);
+        Mockito.verify(ss, Mockito.times(2)).accept();
+    }
 
     @Test
-    @PrepareForTest({ImplController.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
     public void test_4() throws NoSuchFieldException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, IOException, GeneralTelnetException {
         TestContext context = prepareServerAccept();
         ImplController controller = context.getController();
+        EventLoop loop = context.getLoop();
         List<String> decodedLines = new ArrayList<>();
         // Execute method
-        Method processKeys = controller.getClass().getDeclaredMethod("processKeys", null);
-        processKeys.setAccessible(true);
-        processKeys.invoke(controller, null);
+        invoke(controller, "processKeys");
+        invoke(loop, "processKeys");
 
         // create read event
-        Field field = controller.getClass().getDeclaredField("DATA_PORTION");
-        field.setAccessible(true);
-        int data_portion = field.getInt(controller);
-        PowerMockito.when(context.getKey().isAcceptable()).thenReturn(false);
-        PowerMockito.when(context.getKey().isReadable()).thenReturn(true);
-        PowerMockito.when(context.getKey().channel()).thenReturn(context.getChannel());
+        int data_portion = context.getConf().getConf().getReadBufferSize();
+        prepareRead(context);
         PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(0);
         // mock session object for returning decoding string
-        field = controller.getClass().getDeclaredField("sessions");
-        field.setAccessible(true);
-        Map<SocketChannel, AuthTelnetClientSession> sessions = (Map<SocketChannel, AuthTelnetClientSession>)field.get(controller);
+        Map<SocketChannel, AuthTelnetClientSession> sessions = sessions(loop);
         IClientSession session = PowerMockito.mock(IClientSession.class);
         AuthTelnetClientSession authSession = new AuthTelnetClientSession(session);
         authSession.setPasswd("user");
@@ -229,7 +299,7 @@ public class ImplControllerTest {
         decodedLines.clear();
         decodedLines.add("test");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
 
         // check client connection success read unknown command
         Mockito.verify(session).addTask(any(Command.class));
@@ -247,10 +317,10 @@ public class ImplControllerTest {
         decodedLines.clear();
         decodedLines.add("test");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
         Mockito.verify(session).addTask(any(Command.class));
 
-        // check client connection success read known long(length > data_portion) command
+        // check client connection success read known long(length > read buffer size) command
         Mockito.reset(session);
         template = CommandTemplate.build("test command", "description", new ICommandProcessorFactory() {
             @Override
@@ -259,11 +329,11 @@ public class ImplControllerTest {
             }
         });
         controller.register(template);
-        PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(10).thenReturn(2);
+        PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(2);
         decodedLines.clear();
         decodedLines.add("test command");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(new ArrayList<String>()).thenReturn(decodedLines);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
         Mockito.verify(session).addTask(any(Command.class));
 
         // Two commands at one decoding iteration
@@ -282,45 +352,39 @@ public class ImplControllerTest {
             }
         });
         controller.register(template);
-        PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(10).thenReturn(10).thenReturn(0);
+        PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(data_portion).thenReturn(0);
         decodedLines.clear();
         decodedLines.add("test command");
         decodedLines.add("test");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(new ArrayList<String>()).thenReturn(decodedLines);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
         Mockito.verify(session, times(2)).addTask(any(Command.class));
 
 
         // check client connection was closed
         PowerMockito.when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(-1);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
         Mockito.verify(session).close();
     }
 
 
     @Test
-    @PrepareForTest({ImplController.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
     public void auth_success() throws InvocationTargetException, IllegalAccessException, NoSuchFieldException, IOException, NoSuchMethodException, GeneralTelnetException {
         TestContext context = prepareServerAccept();
         ImplController controller = context.getController();
+        EventLoop loop = context.getLoop();
         List<String> decodedLines = new ArrayList<>();
         // Execute method
-        Method processKeys = controller.getClass().getDeclaredMethod("processKeys", null);
-        processKeys.setAccessible(true);
-        processKeys.invoke(controller, null);
-
-        PowerMockito.when(context.getKey().isAcceptable()).thenReturn(false);
-        PowerMockito.when(context.getKey().isReadable()).thenReturn(true);
-        PowerMockito.when(context.getKey().channel()).thenReturn(context.getChannel());
-        Field field = controller.getClass().getDeclaredField("DATA_PORTION");
-        field.setAccessible(true);
-        int data_portion = field.getInt(controller);
+        invoke(controller, "processKeys");
+        invoke(loop, "processKeys");
+
+        prepareRead(context);
+        int data_portion = context.getConf().getConf().getReadBufferSize();
         when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(0);
 
         // mock session object for returning decoding string
-        field = controller.getClass().getDeclaredField("sessions");
-        field.setAccessible(true);
-        Map<SocketChannel, AuthTelnetClientSession> sessions = (Map<SocketChannel, AuthTelnetClientSession>)field.get(controller);
+        Map<SocketChannel, AuthTelnetClientSession> sessions = sessions(loop);
         IClientSession session = PowerMockito.mock(IClientSession.class);
         AuthTelnetClientSession authSession = new AuthTelnetClientSession(session);
         sessions.put(context.getChannel(), authSession);
@@ -328,7 +392,7 @@ public class ImplControllerTest {
         decodedLines.add("user");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
         //invoke user name request
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
 
         // user name must be setted but paswd not
         assertTrue(authSession.hasUserName());
@@ -338,36 +402,32 @@ public class ImplControllerTest {
         //invoke user passwd request
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
         when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(0);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
+        invoke(loop, "processKeys");
         // user name must be setted, paswd was successfully stted
         assertTrue(authSession.hasUserName());
         assertTrue(authSession.hasPasswd());
         assertFalse(authSession.isAuthFailed());
+        assertTrue(authSession.getState() == AuthTelnetClientSession.State.AUTHENTICATED);
     }
 
     @Test
-    @PrepareForTest({ImplController.class, SelectionKey.class, Selector.class, SocketChannel.class})
+    @PrepareForTest({ImplController.class, EventLoop.class, SelectionKey.class, Selector.class, SocketChannel.class})
     public void auth_failed() throws InvocationTargetException, IllegalAccessException, NoSuchFieldException, IOException, NoSuchMethodException, GeneralTelnetException {
         TestContext context = prepareServerAccept();
         ImplController controller = context.getController();
+        EventLoop loop = context.getLoop();
         List<String> decodedLines = new ArrayList<>();
         // Execute method
-        Method processKeys = controller.getClass().getDeclaredMethod("processKeys", null);
-        processKeys.setAccessible(true);
-        processKeys.invoke(controller, null);
-
-        PowerMockito.when(context.getKey().isAcceptable()).thenReturn(false);
-        PowerMockito.when(context.getKey().isReadable()).thenReturn(true);
-        PowerMockito.when(context.getKey().channel()).thenReturn(context.getChannel());
-        Field field = controller.getClass().getDeclaredField("DATA_PORTION");
-        field.setAccessible(true);
-        int data_portion = field.getInt(controller);
+        invoke(controller, "processKeys");
+        invoke(loop, "processKeys");
+
+        prepareRead(context);
+        int data_portion = context.getConf().getConf().getReadBufferSize();
         when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(0);
 
         // mock session object for returning decoding string
-        field = controller.getClass().getDeclaredField("sessions");
-        field.setAccessible(true);
-        Map<SocketChannel, AuthTelnetClientSession> sessions = (Map<SocketChannel, AuthTelnetClientSession>)field.get(controller);
+        Map<SocketChannel, AuthTelnetClientSession> sessions = sessions(loop);
         IClientSession session = PowerMockito.mock(IClientSession.class);
         AuthTelnetClientSession authSession = new AuthTelnetClientSession(session);
         sessions.put(context.getChannel(), authSession);
@@ -375,7 +435,7 @@ public class ImplControllerTest {
         decodedLines.add("test");
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
         //invoke user name request
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
 
         // user name must be setted but paswd not
         assertTrue(authSession.hasUserName());
@@ -385,7 +445,9 @@ public class ImplControllerTest {
         //invoke user passwd request
         PowerMockito.when(session.decode(any(ByteBuffer.class), anyInt())).thenReturn(decodedLines);
         when(context.getChannel().read(any(ByteBuffer.class))).thenReturn(data_portion).thenReturn(0);
-        processKeys.invoke(controller, null);
+        invoke(loop, "processKeys");
+        // check of credentials completes on the next pass
+        invoke(loop, "processKeys");
         // user name must be setted, paswd was successfully stted, auth is failed
         assertTrue(authSession.hasUserName());
         assertTrue(authSession.hasPasswd());
@@ -393,13 +455,46 @@ public class ImplControllerTest {
         verify(session, times(1)).close();
     }
 
+    private static void invoke(Object _target, String _method) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        Method method = _target.getClass().getDeclaredMethod(_method);
+        method.setAccessible(true);
+        method.invoke(_target);
+    }
+
+    private static Map<SocketChannel, AuthTelnetClientSession> sessions(EventLoop _loop) throws NoSuchFieldException, IllegalAccessException {
+        Field field = EventLoop.class.getDeclaredField("sessions");
+        field.setAccessible(true);
+        return (Map<SocketChannel, AuthTelnetClientSession>) field.get(_loop);
+    }
+
+    private static Answer<Set<SelectionKey>> keys(final SelectionKey _key) {
+        return new Answer<Set<SelectionKey>>() {
+            @Override
+            public Set<SelectionKey> answer(InvocationOnMock invocation) {
+                Set<SelectionKey> keys = new HashSet<>();
+                if (_key != null) {
+                    keys.add(_key);
+                }
+                return keys;
+            }
+        };
+    }
+
+    private void prepareRead(TestContext _context) {
+        SelectionKey clientKey = _context.getClientKey();
+        PowerMockito.when(clientKey.isValid()).thenReturn(true);
+        PowerMockito.when(clientKey.isReadable()).thenReturn(true);
+        PowerMockito.when(clientKey.channel()).thenReturn(_context.getChannel());
+        PowerMockito.when(_context.getLoopSelector().selectedKeys()).thenAnswer(keys(clientKey));
+    }
+
     private TestContext prepareServerAccept() throws NoSuchFieldException, IllegalAccessException, IOException {
         ImplController controller = new ImplController();
         // reflect change server socket
         ServerSocketChannel ss = PowerMockito.mock(ServerSocketChannel.class);
-        Field field = controller.getClass().getDeclaredField("ss");
+        Field field = controller.getClass().getDeclaredField("servers");
         field.setAccessible(true);
-        field.set(controller, ss);
+        field.set(controller, Collections.singletonList(ss));
         // reflect change state
         field = controller.getClass().getDeclaredField("status");
         field.setAccessible(true);
@@ -415,20 +510,30 @@ public class ImplControllerTest {
         field = controller.getClass().getDeclaredField("conf");
         field.setAccessible(true);
         field.set(controller, confWrapper);
+        // credentials are checked by calling thread
+        field = controller.getClass().getDeclaredField("authEngine");
+        field.setAccessible(true);
+        field.set(controller, new ExecutorExecutionEngine(MoreExecutors.newDirectExecutorService()));
+        // Reflect worker loop
+        Selector loopSelector = PowerMockito.mock(Selector.class);
+        PowerMockito.when(loopSelector.selectedKeys()).thenAnswer(keys(null));
+        EventLoop loop = new EventLoop(controller, loopSelector, new ReadBufferPool(conf.getReadBufferSize(), false));
+        field = controller.getClass().getDeclaredField("loops");
+        field.setAccessible(true);
+        field.set(controller, new EventLoop[] {loop});
         // SelectionKey check
         SelectionKey key = PowerMockito.mock(SelectionKey.class);
         PowerMockito.when(key.isReadable()).thenReturn(false);
         PowerMockito.when(key.isAcceptable()).thenReturn(true);
-        Set<SelectionKey> keys = new HashSet<>();
-        keys.add(key);
         PowerMockito.when(selector.select(anyInt())).thenReturn(1);
-        PowerMockito.when(selector.selectedKeys()).thenReturn(keys);
+        PowerMockito.when(selector.selectedKeys()).thenAnswer(keys(key));
         // mock client SelectableChannel return
         PowerMockito.when(key.channel()).thenReturn(ss);
         SocketChannel client = PowerMockito.mock(SocketChannel.class);
-        PowerMockito.when(ss.accept()).thenReturn(client);
+        PowerMockito.when(ss.accept()).thenReturn(client, (SocketChannel) null);
         SelectionKey keyClnt = PowerMockito.mock(SelectionKey.class);
         PowerMockito.when(client.register(any(Selector.class), anyInt())).thenReturn(keyClnt);
-        return new TestContext().setChannel(client).setConf(confWrapper).setController(controller).setKey(key);
+        return new TestContext().setChannel(client).setConf(confWrapper).setController(controller).setKey(key)
+                .setLoop(loop).setLoopSelector(loopSelector).setClientKey(keyClnt);
     }
-}
\ No newline at end of file
+}
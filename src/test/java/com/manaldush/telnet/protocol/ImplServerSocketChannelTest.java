@@ -0,0 +1,32 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertTrue;
+
+public class ImplServerSocketChannelTest {
+    @Test
+    public void transport() throws IOException {
+        ImplServerSocketChannel factory = new ImplServerSocketChannel();
+        Path dir = Files.createTempDirectory("telnet");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(dir.resolve("telnet.sock"));
+        try (ServerSocketChannel unix = factory.build(address)) {
+            unix.bind(address);
+            assertTrue(unix.getLocalAddress() instanceof UnixDomainSocketAddress);
+        } finally {
+            Files.deleteIfExists(address.getPath());
+            Files.delete(dir);
+        }
+        try (ServerSocketChannel tcp = factory.build(new InetSocketAddress("127.0.0.1", 0))) {
+            tcp.bind(new InetSocketAddress("127.0.0.1", 0));
+            assertTrue(tcp.getLocalAddress() instanceof InetSocketAddress);
+        }
+    }
+}
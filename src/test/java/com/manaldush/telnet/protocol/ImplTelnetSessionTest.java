@@ -1,19 +1,34 @@
 package com.manaldush.telnet.protocol;
 
+import com.manaldush.telnet.Command;
+import com.manaldush.telnet.CommandTemplate;
 import com.manaldush.telnet.IClientSession;
+import com.manaldush.telnet.ICommandProcessor;
+import com.manaldush.telnet.ICommandProcessorFactory;
 import com.manaldush.telnet.IController;
+import com.manaldush.telnet.QueueOverflowPolicy;
+import com.manaldush.telnet.exceptions.DecodingException;
 import com.manaldush.telnet.exceptions.GeneralTelnetException;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.Matchers.any;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 
@@ -26,7 +41,7 @@ public class ImplTelnetSessionTest {
         // Buffer method check
         SocketChannel channel = Mockito.mock(SocketChannel.class);
         SelectionKey key = Mockito.mock(SelectionKey.class);
-        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, new ImplController(), 3, key, "->");
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 3, key, "->");
         session.addBuffer((byte)0x33);
         session.addBuffer((byte)0x33);
         session.addBuffer((byte)0x33);
@@ -40,11 +55,97 @@ public class ImplTelnetSessionTest {
         session.resetBuffer();
         assertTrue(session.getBuffer() == null);
     }
+
+    @Test
+    public void test_buffer_range() {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 3, key, "->");
+        ByteBuffer src = ByteBuffer.wrap("0123456789".getBytes());
+        session.addBuffer((byte)0x33);
+        session.addBuffer(src, 2, 7);
+        session.addBuffer(src, 0, 1);
+        ByteBuffer buffer = session.getBuffer();
+        buffer.flip();
+        byte[] bytes = new byte[buffer.limit()];
+        buffer.get(bytes);
+        assertTrue(Arrays.equals("323456780".getBytes(), bytes));
+        assertTrue(src.position() == 0 && src.limit() == 10);
+    }
+
+    @Test
+    public void test_buffer_growth() throws NoSuchFieldException, IllegalAccessException {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 10, key, "->");
+        Field field = session.getClass().getDeclaredField("buffer");
+        field.setAccessible(true);
+        int reallocations = 0;
+        Object current = null;
+        for (int i = 0; i < 65536; i++) {
+            session.addBuffer((byte)0x33);
+            if (field.get(session) != current) {
+                current = field.get(session);
+                reallocations++;
+            }
+        }
+        assertTrue(reallocations < 20);
+        assertTrue(session.getBuffer().position() == 65536);
+    }
+
+    @Test
+    public void test_max_line_length() throws IOException, GeneralTelnetException {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 10, key,
+                "->", 0, QueueOverflowPolicy.BACKPRESSURE, 8);
+        ByteBuffer src = ByteBuffer.wrap("12345678\r\n".getBytes());
+        assertTrue(session.decode(src, src.capacity()).get(0).equals("12345678"));
+        src = ByteBuffer.wrap("123456789".getBytes());
+        try {
+            session.decode(src, src.capacity());
+            assertTrue(false);
+        } catch (DecodingException e) {
+            // line is longer than 8 bytes
+        }
+        // bytes of too long line are dropped
+        assertTrue(session.getBuffer().position() == 0);
+    }
+
+    @Test
+    public void test_max_line_length_crlf() throws IOException, GeneralTelnetException {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 10, key,
+                "->", 0, QueueOverflowPolicy.BACKPRESSURE, 4);
+        // too long line and its CRLF are received in one buffer
+        ByteBuffer src = ByteBuffer.wrap("helpXYZ\r\n".getBytes());
+        try {
+            session.decode(src, src.capacity());
+            assertTrue(false);
+        } catch (DecodingException e) {
+            // line is longer than 4 bytes
+        }
+        // the same for partly collected line
+        session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 10, key,
+                "->", 0, QueueOverflowPolicy.BACKPRESSURE, 4);
+        src = ByteBuffer.wrap("ok\r\nhe".getBytes());
+        assertTrue(session.decode(src, src.capacity()).get(0).equals("ok"));
+        src = ByteBuffer.wrap("lp\r\nhelp".getBytes());
+        assertTrue(session.decode(src, src.capacity()).get(0).equals("help"));
+        src = ByteBuffer.wrap("X\r\n".getBytes());
+        try {
+            session.decode(src, src.capacity());
+            assertTrue(false);
+        } catch (DecodingException e) {
+            // line is longer than 4 bytes
+        }
+    }
     @Test
     public void test_decode() throws NoSuchFieldException, IllegalAccessException, GeneralTelnetException, IOException {
         SocketChannel channel = Mockito.mock(SocketChannel.class);
         SelectionKey key = Mockito.mock(SelectionKey.class);
-        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, new ImplController(), 3, key, "->");
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, Mockito.mock(EventLoop.class), 3, key, "->");
         IDecoder decoder = Mockito.mock(IDecoder.class);
         Field field = session.getClass().getDeclaredField("decoder");
         field.setAccessible(true);
@@ -53,12 +154,36 @@ public class ImplTelnetSessionTest {
         Mockito.verify(decoder).decode(any(ByteBuffer.class), Mockito.anyInt());
     }
 
+    @Test
+    public void test_add_task() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10, key, "->");
+        final ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        Command cmd = Command.build(CommandTemplate.build("test", "test", new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(Command _cmd, IClientSession _session) {
+                return processor;
+            }
+        }));
+        session.addTask(cmd);
+        session.addTask(cmd);
+        // one task drains queue of session
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(processor, Mockito.times(2)).process();
+        session.addTask(cmd);
+        Mockito.verify(loop, Mockito.times(2)).execute(any(Runnable.class));
+    }
+
     @Test
     public void test_write_1() throws IOException {
         SocketChannel channel = Mockito.mock(SocketChannel.class);
         SelectionKey key = Mockito.mock(SelectionKey.class);
-        ImplController controller = Mockito.mock(ImplController.class);
-        IClientSession session = new ImplTelnetClientSession(channel, controller,10, key, "->");
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        IClientSession session = new ImplTelnetClientSession(channel, loop, 10, key, "->");
         session.write("test");
         Mockito.verify(channel).write(any(ByteBuffer.class));
     }
@@ -67,8 +192,8 @@ public class ImplTelnetSessionTest {
     public void test_write_2() throws IOException {
         SelectionKey key = Mockito.mock(SelectionKey.class);
         SocketChannel channel = Mockito.mock(SocketChannel.class);
-        ImplController controller = Mockito.mock(ImplController.class);
-        IClientSession session = new ImplTelnetClientSession(channel, controller, 10, key, "->");
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        IClientSession session = new ImplTelnetClientSession(channel, loop, 10, key, "->");
         Mockito.when(channel.write(any(ByteBuffer.class))).thenThrow(IOException.class);
         try {
             session.write("test");
@@ -77,4 +202,257 @@ public class ImplTelnetSessionTest {
         }
         Mockito.verify(channel).write(any(ByteBuffer.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_write_partial() throws IOException {
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10, key, "->");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // socket accepts only 2 bytes
+        accept(channel, out, 2);
+        when(key.isValid()).thenReturn(true);
+        session.write("test");
+        session.write("ab");
+        assertTrue(out.toString().equals("te"));
+        Mockito.verify(loop, Mockito.times(1)).requestFlush(session);
+        // output is queued until flush, close is delayed
+        session.close();
+        Mockito.verify(loop, never()).resetSession(channel);
+        session.flush();
+        assertTrue(out.toString().equals("test"));
+        Mockito.verify(loop, never()).resetSession(channel);
+        session.flush();
+        assertTrue(out.toString().equals("testab"));
+        Mockito.verify(loop).resetSession(channel);
+    }
+
+    @Test
+    public void test_write_batch() throws IOException {
+        SelectionKey key = Mockito.mock(SelectionKey.class);
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10, key, "->");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accept(channel, out, 100);
+        session.beginBatch();
+        session.write("test");
+        session.prompt();
+        Mockito.verify(channel, never()).write(any(ByteBuffer.class));
+        session.endBatch();
+        // batch is written with one gathering write
+        Mockito.verify(channel).write(any(ByteBuffer[].class), anyInt(), anyInt());
+        assertTrue(out.toString().equals("test" + Constants.GREEN + "->" + Constants.RESET_COLOR));
+        Mockito.verify(loop).addSavedWrites(1);
+        Mockito.verify(loop, never()).requestFlush(session);
+    }
+
+    @Test
+    public void test_write_blocking_command() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accept(channel, out, 1000);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final IClientSession[] target = {session};
+        ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                target[0].write("first-part");
+                written.countDown();
+                proceed.await();
+                target[0].write("second-part");
+                return null;
+            }
+        }).when(processor).process();
+        session.addTask(command(processor));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        Thread executor = new Thread(task.getValue());
+        executor.start();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        // output of blocked command is delivered at once, not at the end of command
+        assertTrue(out.toString().equals("first-part"));
+        proceed.countDown();
+        executor.join(5000);
+        assertTrue(out.toString().equals("first-partsecond-part\r\n" + Constants.GREEN + "->"
+                + Constants.RESET_COLOR));
+    }
+
+    @Test
+    public void test_queue_reject() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->", 2, QueueOverflowPolicy.REJECT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accept(channel, out, 1000);
+        ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        Command cmd = command(processor);
+        session.addTask(cmd);
+        session.addTask(cmd);
+        assertFalse(out.toString().contains("busy"));
+        // queue is full, command is rejected
+        session.addTask(cmd);
+        assertTrue(out.toString().contains("busy"));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(processor, Mockito.times(2)).process();
+    }
+
+    @Test
+    public void test_queue_drop_oldest() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->", 2, QueueOverflowPolicy.DROP_OLDEST);
+        ICommandProcessor first = Mockito.mock(ICommandProcessor.class);
+        ICommandProcessor next = Mockito.mock(ICommandProcessor.class);
+        session.addTask(command(first));
+        session.addTask(command(next));
+        session.addTask(command(next));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(first, never()).process();
+        Mockito.verify(next, Mockito.times(2)).process();
+    }
+
+    @Test
+    public void test_queue_backpressure() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->", 2, QueueOverflowPolicy.BACKPRESSURE);
+        ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        Command cmd = command(processor);
+        session.addTask(cmd);
+        assertFalse(session.isReadPaused());
+        session.addTask(cmd);
+        assertTrue(session.isReadPaused());
+        // read command is queued above capacity
+        session.addTask(cmd);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(processor, Mockito.times(3)).process();
+        assertFalse(session.isReadPaused());
+        Mockito.verify(loop).resumeRead(session);
+    }
+
+    @Test
+    public void test_add_task_inline() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accept(channel, out, 1000);
+        ICommandProcessor inlineProcessor = Mockito.mock(ICommandProcessor.class);
+        Command inline = command(inlineProcessor);
+        inline.getTemplate().setInline(true);
+        // session is idle, command is executed at once with prompt
+        session.addTask(inline);
+        Mockito.verify(inlineProcessor).process();
+        Mockito.verify(loop, never()).execute(any(Runnable.class));
+        assertTrue(out.toString().endsWith("->" + Constants.RESET_COLOR));
+        // session is busy, command is queued after other commands
+        ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        session.addTask(command(processor));
+        session.addTask(inline);
+        Mockito.verify(inlineProcessor).process();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(processor).process();
+        Mockito.verify(inlineProcessor, Mockito.times(2)).process();
+    }
+
+    @Test
+    public void test_add_task_inline_failure() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->");
+        accept(channel, new ByteArrayOutputStream(), 1000);
+        ICommandProcessor inlineProcessor = Mockito.mock(ICommandProcessor.class);
+        Mockito.doThrow(new IllegalStateException("test")).when(inlineProcessor).process();
+        Command inline = command(inlineProcessor);
+        inline.getTemplate().setInline(true);
+        // exception of command doesn't reach I/O thread, only session is closed
+        session.addTask(inline);
+        Mockito.verify(inlineProcessor).process();
+        Mockito.verify(loop).resetSession(channel);
+        Field field = session.getClass().getDeclaredField("running");
+        field.setAccessible(true);
+        assertFalse((Boolean) field.get(session));
+    }
+
+    @Test
+    public void test_add_tasks() throws Exception {
+        SocketChannel channel = Mockito.mock(SocketChannel.class);
+        EventLoop loop = Mockito.mock(EventLoop.class);
+        ImplTelnetClientSession session = new ImplTelnetClientSession(channel, loop, 10,
+                Mockito.mock(SelectionKey.class), "->");
+        accept(channel, new ByteArrayOutputStream(), 1000);
+        ICommandProcessor inlineProcessor = Mockito.mock(ICommandProcessor.class);
+        Command inline = command(inlineProcessor);
+        inline.getTemplate().setInline(true);
+        ICommandProcessor processor = Mockito.mock(ICommandProcessor.class);
+        Command cmd = command(processor);
+        session.addTasks(Arrays.asList(inline, cmd, inline, cmd));
+        // leading inline command is executed at once, the rest wake up engine once
+        Mockito.verify(inlineProcessor).process();
+        Mockito.verify(processor, never()).process();
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(loop).execute(task.capture());
+        task.getValue().run();
+        Mockito.verify(processor, Mockito.times(2)).process();
+        Mockito.verify(inlineProcessor, Mockito.times(2)).process();
+    }
+
+    private static Command command(final ICommandProcessor _processor) {
+        return Command.build(CommandTemplate.build("test", "test", new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(Command _cmd, IClientSession _session) {
+                return _processor;
+            }
+        }));
+    }
+
+    /**
+     * Channel mock accepts not more than _limit bytes per write.
+     */
+    private static void accept(final SocketChannel _channel, final ByteArrayOutputStream _out, final int _limit)
+            throws IOException {
+        when(_channel.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                return (int) transfer(_out, _limit, (ByteBuffer) invocation.getArguments()[0]);
+            }
+        });
+        when(_channel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return transfer(_out, _limit, (ByteBuffer[]) invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    private static long transfer(final ByteArrayOutputStream _out, final int _limit, final ByteBuffer... _buffers) {
+        long n = 0;
+        for (ByteBuffer buf : _buffers) {
+            while (buf.hasRemaining() && n < _limit) {
+                _out.write(buf.get());
+                n++;
+            }
+        }
+        return n;
+    }
+}
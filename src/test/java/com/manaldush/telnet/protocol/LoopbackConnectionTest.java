@@ -0,0 +1,345 @@
+package com.manaldush.telnet.protocol;
+
+import com.manaldush.telnet.Command;
+import com.manaldush.telnet.CommandTemplate;
+import com.manaldush.telnet.Configuration;
+import com.manaldush.telnet.IClientSession;
+import com.manaldush.telnet.ICommandProcessor;
+import com.manaldush.telnet.ICommandProcessorFactory;
+import com.manaldush.telnet.QueueOverflowPolicy;
+import com.manaldush.telnet.exceptions.OperationException;
+import com.manaldush.telnet.security.Role;
+import com.manaldush.telnet.security.User;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopbackConnectionTest {
+    private static final String ROLE = "loopback_role";
+    private static final long TIMEOUT = 5000;
+    /**Close linger of event loop.*/
+    private static final long CLOSE_LINGER = 5000;
+    /**Output of flood command, much more than socket buffers can hold.*/
+    private static final int FLOOD_SIZE = 16 * 1024 * 1024;
+
+    @AfterClass
+    public static void release() {
+        Role.clear();
+        User.clear();
+    }
+
+    @Test
+    public void pipe() throws Exception {
+        LoopbackPipe pipe = new LoopbackPipe();
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        assertTrue(pipe.read(dst) == 0);
+        assertFalse(pipe.await(TimeUnit.MILLISECONDS.toNanos(10)));
+        // pipe grows beyond initial size
+        byte[] data = new byte[5000];
+        data[4999] = 0x33;
+        assertTrue(pipe.write(new ByteBuffer[] {ByteBuffer.wrap(data)}, 0, 1) == 5000);
+        assertTrue(pipe.await(0));
+        int read = 0;
+        while (read < 4996) {
+            dst.clear();
+            read += pipe.read(dst);
+        }
+        dst.clear();
+        assertTrue(pipe.read(dst) == 4);
+        assertTrue(dst.get(3) == 0x33);
+        pipe.closeWrite();
+        dst.clear();
+        assertTrue(pipe.read(dst) == -1);
+    }
+
+    @Test(expected = IOException.class)
+    public void writeToClosedPeer() throws Exception {
+        LoopbackPipe pipe = new LoopbackPipe();
+        pipe.closeRead();
+        pipe.write(new ByteBuffer[] {ByteBuffer.wrap(new byte[1])}, 0, 1);
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void writeAfterClose() throws Exception {
+        LoopbackPipe pipe = new LoopbackPipe();
+        pipe.closeWrite();
+        pipe.write(new ByteBuffer[] {ByteBuffer.wrap(new byte[1])}, 0, 1);
+    }
+
+    @Test
+    public void session() throws Exception {
+        Configuration conf = Configuration.build("127.0.0.1", freePort());
+        ImplController controller = start(conf);
+        try {
+            LoopbackConnection connection = login(controller, conf);
+            connection.write("ping\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(await(connection, new StringBuilder(), "pong"));
+            connection.close();
+            assertFalse(connection.isOpen());
+        } finally {
+            controller.stop();
+        }
+    }
+
+    @Test
+    public void cancelTimeouts() throws Exception {
+        // timeouts of closed sessions don't stay in timer till deadline
+        Configuration conf = Configuration.build("127.0.0.1", freePort()).setLoginTimeout(1, TimeUnit.HOURS)
+                .setIdleTimeout(1, TimeUnit.HOURS).setSessionTimeout(1, TimeUnit.HOURS);
+        ImplController controller = start(conf);
+        try {
+            for (int i = 0; i < 10; i++) {
+                LoopbackConnection connection = login(controller, conf);
+                connection.close();
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (scheduledTimeouts(controller) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, scheduledTimeouts(controller));
+        } finally {
+            controller.stop();
+        }
+    }
+
+    @Test
+    public void closeLinger() throws Exception {
+        // session, closed with output that client never reads, is released after close linger
+        Configuration conf = Configuration.build("127.0.0.1", freePort()).setSoSndBuf(4096);
+        ImplController controller = start(conf);
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", conf.getPort()), (int) TIMEOUT);
+            socket.setSoTimeout((int) TIMEOUT);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            StringBuilder output = new StringBuilder();
+            assertTrue(await(in, output, "username:"));
+            out.write("loopback\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(await(in, output, "password:"));
+            out.write("secret\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertTrue(await(in, output, conf.getGreeting()));
+            assertEquals(1, sessions(controller));
+            out.write("flood\r\nquit\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            // client doesn't read anymore
+            long deadline = System.currentTimeMillis() + CLOSE_LINGER + TIMEOUT;
+            while (sessions(controller) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, sessions(controller));
+        } finally {
+            controller.stop();
+        }
+    }
+
+    private static int sessions(final ImplController _controller) throws Exception {
+        Field loopsField = ImplController.class.getDeclaredField("loops");
+        loopsField.setAccessible(true);
+        Field sessionsField = EventLoop.class.getDeclaredField("sessions");
+        sessionsField.setAccessible(true);
+        int size = 0;
+        for (EventLoop loop : (EventLoop[]) loopsField.get(_controller)) {
+            size += ((Map<?, ?>) sessionsField.get(loop)).size();
+        }
+        return size;
+    }
+
+    private static int scheduledTimeouts(final ImplController _controller) throws Exception {
+        Field loopsField = ImplController.class.getDeclaredField("loops");
+        loopsField.setAccessible(true);
+        Field timerField = EventLoop.class.getDeclaredField("timer");
+        timerField.setAccessible(true);
+        int size = 0;
+        for (EventLoop loop : (EventLoop[]) loopsField.get(_controller)) {
+            size += ((HashedWheelTimer) timerField.get(loop)).size();
+        }
+        return size;
+    }
+
+    @Test
+    public void pipelinedLogin() throws Exception {
+        // credentials and the first command in one write
+        Configuration conf = Configuration.build("127.0.0.1", freePort());
+        ImplController controller = start(conf);
+        try {
+            LoopbackConnection connection = controller.connect();
+            connection.write("loopback\r\nsecret\r\nping\r\n".getBytes(StandardCharsets.US_ASCII));
+            StringBuilder output = new StringBuilder();
+            assertTrue(await(connection, output, conf.getGreeting()));
+            assertTrue(await(connection, output, "pong"));
+            connection.close();
+        } finally {
+            controller.stop();
+        }
+    }
+
+    @Test
+    public void readQuota() throws Exception {
+        // every pass of loop reads one small chunk of session, the rest is read on next passes
+        Configuration conf = Configuration.build("127.0.0.1", freePort()).setReadBufferSize(8).setReadQuota(8, 1);
+        pingAll(conf, 20);
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        // reading is paused and resumed many times, no command is lost
+        Configuration conf = Configuration.build("127.0.0.1", freePort()).setReadBufferSize(16)
+                .setCommandQueue(2, QueueOverflowPolicy.BACKPRESSURE);
+        pingAll(conf, 100);
+    }
+
+    private static void pingAll(final Configuration _conf, final int _number) throws Exception {
+        ImplController controller = start(_conf);
+        try {
+            LoopbackConnection connection = login(controller, _conf);
+            StringBuilder input = new StringBuilder();
+            for (int i = 0; i < _number; i++) {
+                input.append("ping\r\n");
+            }
+            connection.write(input.toString().getBytes(StandardCharsets.US_ASCII));
+            StringBuilder output = new StringBuilder();
+            for (int i = 0; i < _number; i++) {
+                assertTrue(await(connection, output, "pong"));
+            }
+            connection.close();
+        } finally {
+            controller.stop();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notStarted() throws Exception {
+        new ImplController().connect();
+    }
+
+    private static ImplController start(final Configuration _conf) throws Exception {
+        ImplController controller = new ImplController();
+        controller.configure(ConfigurationWrapper.build(_conf, null));
+        if (!Role.containRole(ROLE)) {
+            Role.build(ROLE);
+            User.build("loopback", "secret", Collections.singleton(ROLE));
+        }
+        CommandTemplate template = CommandTemplate.build("ping", "ping", new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
+                return new ICommandProcessor() {
+                    @Override
+                    public void process() throws OperationException, IOException {
+                        _session.write("pong");
+                    }
+
+                    @Override
+                    public void abortOutput() {
+                    }
+
+                    @Override
+                    public void interruptProcess() {
+                    }
+                };
+            }
+        });
+        template.addRole(ROLE);
+        controller.register(template);
+        CommandTemplate flood = CommandTemplate.build("flood", "flood", new ICommandProcessorFactory() {
+            @Override
+            public ICommandProcessor build(final Command _cmd, final IClientSession _session) {
+                return new ICommandProcessor() {
+                    @Override
+                    public void process() throws OperationException, IOException {
+                        char[] chunk = new char[64 * 1024];
+                        Arrays.fill(chunk, 'x');
+                        String msg = new String(chunk);
+                        for (int i = 0; i < FLOOD_SIZE / chunk.length; i++) {
+                            _session.write(msg);
+                        }
+                    }
+
+                    @Override
+                    public void abortOutput() {
+                    }
+
+                    @Override
+                    public void interruptProcess() {
+                    }
+                };
+            }
+        });
+        flood.setInline(true);
+        flood.addRole(ROLE);
+        controller.register(flood);
+        controller.start();
+        return controller;
+    }
+
+    private static LoopbackConnection login(final ImplController _controller, final Configuration _conf)
+            throws Exception {
+        LoopbackConnection connection = _controller.connect();
+        StringBuilder output = new StringBuilder();
+        assertTrue(await(connection, output, "username:"));
+        connection.write("loopback\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(await(connection, output, "password:"));
+        connection.write("secret\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(await(connection, output, _conf.getGreeting()));
+        return connection;
+    }
+
+    private static boolean await(final LoopbackConnection _connection, final StringBuilder _output,
+                                 final String _expected) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (_output.indexOf(_expected) < 0) {
+            long rest = deadline - System.currentTimeMillis();
+            if (rest <= 0) {
+                return false;
+            }
+            buffer.clear();
+            int n = _connection.read(buffer, rest, TimeUnit.MILLISECONDS);
+            if (n < 0) {
+                return false;
+            }
+            _output.append(new String(buffer.array(), 0, n, StandardCharsets.US_ASCII));
+        }
+        // the rest of output is kept for next expectations
+        _output.delete(0, _output.indexOf(_expected) + _expected.length());
+        return true;
+    }
+
+    private static boolean await(final InputStream _in, final StringBuilder _output, final String _expected)
+            throws IOException {
+        byte[] buffer = new byte[256];
+        while (_output.indexOf(_expected) < 0) {
+            int n = _in.read(buffer);
+            if (n < 0) {
+                return false;
+            }
+            _output.append(new String(buffer, 0, n, StandardCharsets.ISO_8859_1));
+        }
+        _output.delete(0, _output.indexOf(_expected) + _expected.length());
+        return true;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.manaldush.telnet.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadBufferPoolTest {
+    @Test
+    public void reuse() {
+        ReadBufferPool pool = new ReadBufferPool(16, false);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.capacity() == 16);
+        assertFalse(buffer.isDirect());
+        buffer.put((byte) 0x33);
+        pool.release(buffer);
+        // released buffer is reused and cleared
+        ByteBuffer reused = pool.acquire();
+        assertTrue(reused == buffer);
+        assertTrue(reused.position() == 0);
+        assertTrue(reused.remaining() == 16);
+        // pool is empty, new buffer is allocated
+        assertFalse(pool.acquire() == buffer);
+    }
+
+    @Test
+    public void direct() {
+        ReadBufferPool pool = new ReadBufferPool(16, true);
+        assertTrue(pool.acquire().isDirect());
+        assertTrue(pool.getBufferSize() == 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalSize() {
+        new ReadBufferPool(0, false);
+    }
+}
@@ -36,11 +36,14 @@ public class AuthTelnetClientSessionTest {
         assertFalse(authSession.isAuthFailed());
         assertFalse(authSession.hasPasswd());
         assertFalse(authSession.hasUserName());
+        assertTrue(authSession.getState() == AuthTelnetClientSession.State.USER_NAME);
         authSession.setUserName(username);
+        assertTrue(authSession.getState() == AuthTelnetClientSession.State.PASSWORD);
         assertFalse(authSession.isAuthFailed());
         assertFalse(authSession.hasPasswd());
         assertTrue(authSession.hasUserName());
         authSession.setPasswd(passwd);
+        assertTrue(authSession.getState() == AuthTelnetClientSession.State.CHECKING);
         assertFalse(authSession.isAuthFailed());
         assertTrue(authSession.hasPasswd());
         assertTrue(authSession.hasUserName());
@@ -48,6 +51,7 @@ public class AuthTelnetClientSessionTest {
         roles.add("test");
         User.build(username, passwd, roles);
         authSession.checkUser();
+        assertTrue(authSession.getState() == AuthTelnetClientSession.State.AUTHENTICATED);
         assertFalse(authSession.isAuthFailed());
         assertTrue(authSession.hasPasswd());
         assertTrue(authSession.hasUserName());
@@ -0,0 +1,63 @@
+package com.manaldush.telnet.security;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CopyOnWriteUserRepositoryTest {
+    private static final String role_1 = "role_1";
+
+    @After
+    public void release() {
+        User.setRepository(new CopyOnWriteUserRepository());
+    }
+
+    @Test
+    public void roles() throws Exception {
+        CopyOnWriteUserRepository repository = new CopyOnWriteUserRepository();
+        assertTrue(repository.containsRole(Role.SYSTEM_ROLE));
+        repository.addRole(role_1);
+        Set<String> snapshot = repository.getRoles();
+        assertTrue(repository.containsRole(role_1));
+        assertTrue(repository.removeRole(role_1));
+        assertFalse(repository.removeRole(role_1));
+        assertFalse(repository.containsRole(role_1));
+        // snapshot is not changed by later modifications
+        assertTrue(snapshot.contains(role_1));
+        repository.addRole(role_1);
+        repository.clearRoles();
+        assertEquals(Collections.singleton(Role.SYSTEM_ROLE), repository.getRoles());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeSystemRole() throws Exception {
+        new CopyOnWriteUserRepository().removeRole(Role.SYSTEM_ROLE);
+    }
+
+    @Test
+    public void users() throws Exception {
+        User.setRepository(new CopyOnWriteUserRepository());
+        Role.build(role_1);
+        User.build("name", "passwd", Collections.singleton(role_1));
+        assertTrue(User.checkUser("name", "passwd") != null);
+        try {
+            User.build("name", "passwd", Collections.singleton(role_1));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // user exists
+        }
+        assertTrue(User.remove("name"));
+        assertFalse(User.remove("name"));
+        assertTrue(User.checkUser("name", "passwd") == null);
+        // user is added again with new password while verified one is cached
+        User.build("name", "passwd1", Collections.singleton(role_1));
+        assertTrue(User.checkUser("name", "passwd") == null);
+        assertTrue(User.checkUser("name", "passwd1") != null);
+        User.clear();
+        assertTrue(User.getRepository().getUser("name") == null);
+    }
+}
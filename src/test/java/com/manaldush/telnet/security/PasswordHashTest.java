@@ -0,0 +1,28 @@
+package com.manaldush.telnet.security;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordHashTest {
+    @Test
+    public void verify() {
+        PasswordHash hash = PasswordHash.create("secret");
+        assertTrue(hash.verify("secret"));
+        assertFalse(hash.verify("secret1"));
+        assertFalse(hash.verify(""));
+    }
+
+    @Test
+    public void salt() {
+        // the same password gets different salts
+        PasswordHash hash1 = PasswordHash.create("secret");
+        PasswordHash hash2 = PasswordHash.create("secret");
+        assertTrue(Arrays.equals(hash1.digest("secret"), hash1.digest("secret")));
+        assertFalse(Arrays.equals(hash1.digest("secret"), hash2.digest("secret")));
+        assertFalse(Arrays.equals(hash1.digest("secret"), hash1.digest("secret1")));
+    }
+}
@@ -26,10 +26,20 @@ public class RoleTest {
         assertTrue(Role.size() == 3);
         Role role = Role.getRole(role_1);
         assertFalse(role == null);
+        int id = Role.idOf(role_1);
+        assertTrue(id >= 0);
+        assertEquals(id, role.getId());
+        assertNotEquals(id, Role.idOf(role_2));
+        assertEquals(-1, Role.idOf(role_3));
         Role.clear();
         // system role
         assertTrue(Role.size() == 1);
         assertTrue(Role.getRole(role_1) == null);
+        assertEquals(-1, Role.idOf(role_1));
+        // id is kept when role is registered again
+        Role.build(role_1);
+        assertEquals(id, Role.idOf(role_1));
+        Role.clear();
     }
 
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package com.manaldush.telnet.security;
 import org.junit.AfterClass;
 import org.junit.Test;
 
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,8 +35,35 @@ public class UserTest {
         assertFalse(user.hasRole(roleName_2));
         assertTrue(user.hasRole(role_1));
         assertFalse(user.hasRole(role_2));
+        assertFalse(user.hasRole("role_3"));
+        BitSet ids = new BitSet();
+        ids.set(role_2.getId());
+        assertFalse(user.hasAnyRole(ids));
+        ids.set(role_1.getId());
+        assertTrue(user.hasAnyRole(ids));
         user = User.checkUser("name", "passwd1");
         assertTrue(user == null);
+        // verified credentials are checked again by cached digest
+        assertTrue(User.checkUser("name", "passwd") != null);
+        assertTrue(User.checkUser("name", "passwd1") == null);
+    }
+
+    @Test
+    public void unknownUser() throws Exception {
+        Role.build(roleName_1);
+        User.build("known", "passwd", Collections.singleton(roleName_1));
+        // unknown user name goes through key derivation too, so it is not much faster than wrong password
+        long known = Long.MAX_VALUE;
+        long unknown = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            assertTrue(User.checkUser("known", "wrong") == null);
+            known = Math.min(known, System.nanoTime() - start);
+            start = System.nanoTime();
+            assertTrue(User.checkUser("unknown", "wrong") == null);
+            unknown = Math.min(unknown, System.nanoTime() - start);
+        }
+        assertTrue(unknown * 4 > known);
     }
 
 }
\ No newline at end of file